@@ -0,0 +1,320 @@
+#include "YuvConverter.hpp"
+
+#include <string.h>
+#include <vector>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define CAMERAKIT_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define CAMERAKIT_SSE2 1
+#endif
+
+namespace camerakit {
+
+  static bool simdEnabled = true;
+
+  static inline uint8_t Clamp(int value) {
+      return (uint8_t) (value < 0 ? 0 : (value > 255 ? 255 : value));
+  }
+
+  // BT.601 video range with 6 fractional bits, chosen so the SIMD kernels can stay in int16.
+  static inline void YuvToRgba(int y, int u, int v, uint8_t* out) {
+      int c = 74 * (y - 16);
+      int d = u - 128;
+      int e = v - 128;
+      int r = c + 102 * e;
+      int g = c - 25 * d - 52 * e;
+      int b = c + 129 * d;
+      // saturate like the int16 SIMD kernels
+      r = r > 32767 ? 32767 : r;
+      b = b > 32767 ? 32767 : b;
+      out[0] = Clamp((r + 32) >> 6);
+      out[1] = Clamp((g + 32) >> 6);
+      out[2] = Clamp((b + 32) >> 6);
+      out[3] = 255;
+  }
+
+  // ----------------------------------------------------------------------------------------
+
+  YuvImage YuvConverter::Image(const uint8_t* y, const uint8_t* u, const uint8_t* v,
+                               int yRowStride, int uvRowStride, int uvPixelStride,
+                               int width, int height) {
+      int chromaWidth = (width + 1) / 2;
+      int chromaHeight = (height + 1) / 2;
+      YuvImage image = {
+              {y, yRowStride, 1, width, height},
+              {u, uvRowStride, uvPixelStride, chromaWidth, chromaHeight},
+              {v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight}
+      };
+      return image;
+  }
+
+  size_t YuvConverter::OutputSize(Output output, int width, int height) {
+      size_t luma = (size_t) width * (size_t) height;
+      size_t chroma = (size_t) ((width + 1) / 2) * (size_t) ((height + 1) / 2);
+      switch (output) {
+          case OUTPUT_I420:
+          case OUTPUT_NV21:
+              return luma + 2 * chroma;
+          case OUTPUT_RGBA:
+              return luma * 4;
+          case OUTPUT_Y:
+              return luma;
+      }
+      return 0;
+  }
+
+  bool YuvConverter::Convert(const YuvImage& src, Output output, uint8_t* dst, size_t dstCapacity,
+                             int dstWidth, int dstHeight) {
+      if (dst == NULL || src.y.data == NULL || dstWidth <= 0 || dstHeight <= 0
+              || dstWidth > src.y.width || dstHeight > src.y.height
+              || OutputSize(output, dstWidth, dstHeight) > dstCapacity) {
+          return false;
+      }
+
+      if (output != OUTPUT_Y && (src.u.data == NULL || src.v.data == NULL)) {
+          return false;
+      }
+
+      int chromaWidth = (dstWidth + 1) / 2;
+      int chromaHeight = (dstHeight + 1) / 2;
+
+      switch (output) {
+          case OUTPUT_Y:
+          case OUTPUT_I420:
+          case OUTPUT_NV21: {
+              for (int row = 0; row < dstHeight; row++) {
+                  ScaleRow(src.y, row, dstWidth, dstHeight, dst + (size_t) row * dstWidth);
+              }
+
+              if (output == OUTPUT_Y) {
+                  break;
+              }
+
+              uint8_t* chroma = dst + (size_t) dstWidth * dstHeight;
+              if (output == OUTPUT_I420) {
+                  uint8_t* v = chroma + (size_t) chromaWidth * chromaHeight;
+                  for (int row = 0; row < chromaHeight; row++) {
+                      ScaleRow(src.u, row, chromaWidth, chromaHeight, chroma + (size_t) row * chromaWidth);
+                      ScaleRow(src.v, row, chromaWidth, chromaHeight, v + (size_t) row * chromaWidth);
+                  }
+              } else {
+                  std::vector<uint8_t> scratch((size_t) chromaWidth * 2);
+                  uint8_t* u = scratch.data();
+                  uint8_t* v = u + chromaWidth;
+                  for (int row = 0; row < chromaHeight; row++) {
+                      ScaleRow(src.u, row, chromaWidth, chromaHeight, u);
+                      ScaleRow(src.v, row, chromaWidth, chromaHeight, v);
+                      InterleaveRow(v, u, chromaWidth, chroma + (size_t) row * chromaWidth * 2);
+                  }
+              }
+              break;
+          }
+
+          case OUTPUT_RGBA: {
+              // chroma is expanded to one sample per luma pixel, then converted a row at a time;
+              // the expanded rows hold 2 * chromaWidth samples, one more than dstWidth when it is odd
+              size_t fullWidth = (size_t) chromaWidth * 2;
+              std::vector<uint8_t> scratch((size_t) dstWidth + (size_t) chromaWidth * 2 + 2 * fullWidth);
+              uint8_t* y = scratch.data();
+              uint8_t* u = y + dstWidth;
+              uint8_t* v = u + chromaWidth;
+              uint8_t* uFull = v + chromaWidth;
+              uint8_t* vFull = uFull + fullWidth;
+              int chromaRow = -1;
+              for (int row = 0; row < dstHeight; row++) {
+                  ScaleRow(src.y, row, dstWidth, dstHeight, y);
+                  if (row / 2 != chromaRow) {
+                      chromaRow = row / 2;
+                      ScaleRow(src.u, chromaRow, chromaWidth, chromaHeight, u);
+                      ScaleRow(src.v, chromaRow, chromaWidth, chromaHeight, v);
+                      InterleaveRow(u, u, chromaWidth, uFull);
+                      InterleaveRow(v, v, chromaWidth, vFull);
+                  }
+                  RgbaRow(y, uFull, vFull, dstWidth, dst + (size_t) row * dstWidth * 4);
+              }
+              break;
+          }
+
+          default:
+              return false;
+      }
+
+      return true;
+  }
+
+  void YuvConverter::SetSimdEnabled(bool enabled) {
+      simdEnabled = enabled;
+  }
+
+  bool YuvConverter::IsSimdEnabled() {
+      return simdEnabled && IsSimdAvailable();
+  }
+
+  bool YuvConverter::IsSimdAvailable() {
+#if defined(CAMERAKIT_NEON) || defined(CAMERAKIT_SSE2)
+      return true;
+#else
+      return false;
+#endif
+  }
+
+  // ----------------------------------------------------------------------------------------
+
+  void YuvConverter::ScaleRow(const YuvPlane& plane, int dstY, int dstWidth, int dstHeight, uint8_t* out) {
+      if (dstWidth == plane.width && dstHeight == plane.height) {
+          CopyRow(plane.data + (size_t) dstY * plane.rowStride, plane.pixelStride, dstWidth, out);
+          return;
+      }
+
+      if (plane.pixelStride == 1 && dstWidth * 2 == plane.width && dstHeight * 2 == plane.height) {
+          const uint8_t* row0 = plane.data + (size_t) (dstY * 2) * plane.rowStride;
+          HalveRow(row0, row0 + plane.rowStride, dstWidth, out);
+          return;
+      }
+
+      const uint8_t* row = plane.data + (size_t) (((int64_t) dstY * plane.height) / dstHeight) * plane.rowStride;
+      uint32_t step = (uint32_t) (((uint64_t) plane.width << 16) / (uint64_t) dstWidth);
+      uint32_t position = 0;
+      for (int x = 0; x < dstWidth; x++) {
+          out[x] = row[(size_t) (position >> 16) * plane.pixelStride];
+          position += step;
+      }
+  }
+
+  void YuvConverter::CopyRow(const uint8_t* src, int pixelStride, int width, uint8_t* out) {
+      if (pixelStride == 1) {
+          memcpy(out, src, (size_t) width);
+          return;
+      }
+
+      int x = 0;
+      if (pixelStride == 2 && simdEnabled) {
+          // the last sample of a semi-planar row has no partner byte, so stop one vector early
+#if defined(CAMERAKIT_NEON)
+          for (; x + 16 < width; x += 16) {
+              uint8x16x2_t pair = vld2q_u8(src + x * 2);
+              vst1q_u8(out + x, pair.val[0]);
+          }
+#elif defined(CAMERAKIT_SSE2)
+          const __m128i mask = _mm_set1_epi16(0x00FF);
+          for (; x + 16 < width; x += 16) {
+              __m128i a = _mm_and_si128(_mm_loadu_si128((const __m128i*) (src + x * 2)), mask);
+              __m128i b = _mm_and_si128(_mm_loadu_si128((const __m128i*) (src + x * 2 + 16)), mask);
+              _mm_storeu_si128((__m128i*) (out + x), _mm_packus_epi16(a, b));
+          }
+#endif
+      }
+
+      for (; x < width; x++) {
+          out[x] = src[(size_t) x * pixelStride];
+      }
+  }
+
+  void YuvConverter::HalveRow(const uint8_t* row0, const uint8_t* row1, int dstWidth, uint8_t* out) {
+      int x = 0;
+      if (simdEnabled) {
+#if defined(CAMERAKIT_NEON)
+          for (; x + 8 <= dstWidth; x += 8) {
+              uint16x8_t sum = vaddq_u16(vpaddlq_u8(vld1q_u8(row0 + x * 2)),
+                                         vpaddlq_u8(vld1q_u8(row1 + x * 2)));
+              vst1_u8(out + x, vrshrn_n_u16(sum, 2));
+          }
+#elif defined(CAMERAKIT_SSE2)
+          const __m128i mask = _mm_set1_epi16(0x00FF);
+          const __m128i two = _mm_set1_epi16(2);
+          for (; x + 8 <= dstWidth; x += 8) {
+              __m128i a = _mm_loadu_si128((const __m128i*) (row0 + x * 2));
+              __m128i b = _mm_loadu_si128((const __m128i*) (row1 + x * 2));
+              __m128i sum = _mm_add_epi16(
+                      _mm_add_epi16(_mm_and_si128(a, mask), _mm_srli_epi16(a, 8)),
+                      _mm_add_epi16(_mm_and_si128(b, mask), _mm_srli_epi16(b, 8)));
+              sum = _mm_srli_epi16(_mm_add_epi16(sum, two), 2);
+              _mm_storel_epi64((__m128i*) (out + x), _mm_packus_epi16(sum, sum));
+          }
+#endif
+      }
+
+      for (; x < dstWidth; x++) {
+          out[x] = (uint8_t) ((row0[x * 2] + row0[x * 2 + 1] + row1[x * 2] + row1[x * 2 + 1] + 2) >> 2);
+      }
+  }
+
+  void YuvConverter::InterleaveRow(const uint8_t* first, const uint8_t* second, int width, uint8_t* out) {
+      int x = 0;
+      if (simdEnabled) {
+#if defined(CAMERAKIT_NEON)
+          for (; x + 16 <= width; x += 16) {
+              uint8x16x2_t pair;
+              pair.val[0] = vld1q_u8(first + x);
+              pair.val[1] = vld1q_u8(second + x);
+              vst2q_u8(out + x * 2, pair);
+          }
+#elif defined(CAMERAKIT_SSE2)
+          for (; x + 16 <= width; x += 16) {
+              __m128i a = _mm_loadu_si128((const __m128i*) (first + x));
+              __m128i b = _mm_loadu_si128((const __m128i*) (second + x));
+              _mm_storeu_si128((__m128i*) (out + x * 2), _mm_unpacklo_epi8(a, b));
+              _mm_storeu_si128((__m128i*) (out + x * 2 + 16), _mm_unpackhi_epi8(a, b));
+          }
+#endif
+      }
+
+      for (; x < width; x++) {
+          out[x * 2] = first[x];
+          out[x * 2 + 1] = second[x];
+      }
+  }
+
+  void YuvConverter::RgbaRow(const uint8_t* y, const uint8_t* u, const uint8_t* v, int width, uint8_t* out) {
+      int x = 0;
+      if (simdEnabled) {
+#if defined(CAMERAKIT_NEON)
+          const int16x8_t k16 = vdupq_n_s16(16);
+          const int16x8_t k128 = vdupq_n_s16(128);
+          for (; x + 8 <= width; x += 8) {
+              int16x8_t c = vmulq_n_s16(vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vld1_u8(y + x))), k16), 74);
+              int16x8_t d = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vld1_u8(u + x))), k128);
+              int16x8_t e = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vld1_u8(v + x))), k128);
+              int16x8_t r = vqaddq_s16(c, vmulq_n_s16(e, 102));
+              int16x8_t g = vsubq_s16(vsubq_s16(c, vmulq_n_s16(d, 25)), vmulq_n_s16(e, 52));
+              int16x8_t b = vqaddq_s16(c, vmulq_n_s16(d, 129));
+              uint8x8x4_t rgba;
+              rgba.val[0] = vqrshrun_n_s16(r, 6);
+              rgba.val[1] = vqrshrun_n_s16(g, 6);
+              rgba.val[2] = vqrshrun_n_s16(b, 6);
+              rgba.val[3] = vdup_n_u8(255);
+              vst4_u8(out + x * 4, rgba);
+          }
+#elif defined(CAMERAKIT_SSE2)
+          const __m128i zero = _mm_setzero_si128();
+          const __m128i k16 = _mm_set1_epi16(16);
+          const __m128i k128 = _mm_set1_epi16(128);
+          const __m128i k32 = _mm_set1_epi16(32);
+          const __m128i alpha = _mm_set1_epi8((char) 0xFF);
+          for (; x + 8 <= width; x += 8) {
+              __m128i c = _mm_mullo_epi16(_mm_sub_epi16(_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i*) (y + x)), zero), k16), _mm_set1_epi16(74));
+              __m128i d = _mm_sub_epi16(_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i*) (u + x)), zero), k128);
+              __m128i e = _mm_sub_epi16(_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i*) (v + x)), zero), k128);
+              __m128i r = _mm_adds_epi16(c, _mm_mullo_epi16(e, _mm_set1_epi16(102)));
+              __m128i g = _mm_sub_epi16(_mm_sub_epi16(c, _mm_mullo_epi16(d, _mm_set1_epi16(25))), _mm_mullo_epi16(e, _mm_set1_epi16(52)));
+              __m128i b = _mm_adds_epi16(c, _mm_mullo_epi16(d, _mm_set1_epi16(129)));
+              r = _mm_srai_epi16(_mm_adds_epi16(r, k32), 6);
+              g = _mm_srai_epi16(_mm_adds_epi16(g, k32), 6);
+              b = _mm_srai_epi16(_mm_adds_epi16(b, k32), 6);
+              __m128i rg = _mm_unpacklo_epi8(_mm_packus_epi16(r, r), _mm_packus_epi16(g, g));
+              __m128i ba = _mm_unpacklo_epi8(_mm_packus_epi16(b, b), alpha);
+              _mm_storeu_si128((__m128i*) (out + x * 4), _mm_unpacklo_epi16(rg, ba));
+              _mm_storeu_si128((__m128i*) (out + x * 4 + 16), _mm_unpackhi_epi16(rg, ba));
+          }
+#endif
+      }
+
+      for (; x < width; x++) {
+          YuvToRgba(y[x], u[x], v[x], out + x * 4);
+      }
+  }
+
+}
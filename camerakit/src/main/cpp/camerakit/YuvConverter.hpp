@@ -0,0 +1,60 @@
+#pragma once
+
+#include <stddef.h>
+#include <stdint.h>
+
+namespace camerakit {
+
+  struct YuvPlane {
+      const uint8_t* data;
+      int rowStride;
+      int pixelStride;
+      int width;
+      int height;
+  };
+
+  struct YuvImage {
+      YuvPlane y;
+      YuvPlane u;
+      YuvPlane v;
+  };
+
+  class YuvConverter {
+
+    public:
+      enum Output {
+          OUTPUT_I420 = 0,
+          OUTPUT_NV21 = 1,
+          OUTPUT_RGBA = 2,
+          OUTPUT_Y = 3
+      };
+
+    public:
+      static YuvImage Image(const uint8_t* y, const uint8_t* u, const uint8_t* v,
+                            int yRowStride, int uvRowStride, int uvPixelStride,
+                            int width, int height);
+
+      static size_t OutputSize(Output output, int width, int height);
+
+      // Converts src into dst at dstWidth x dstHeight. Downscaling by exactly 2 uses a 2x2 box
+      // filter, other ratios use nearest sampling. Returns false on invalid arguments.
+      static bool Convert(const YuvImage& src, Output output, uint8_t* dst, size_t dstCapacity,
+                          int dstWidth, int dstHeight);
+
+      // SIMD kernels are used when compiled in and enabled; the scalar kernels produce
+      // bit-identical output and serve as the reference implementation.
+      static void SetSimdEnabled(bool enabled);
+      static bool IsSimdEnabled();
+      static bool IsSimdAvailable();
+
+    private:
+      static void ScaleRow(const YuvPlane& plane, int dstY, int dstWidth, int dstHeight, uint8_t* out);
+
+      static void CopyRow(const uint8_t* src, int pixelStride, int width, uint8_t* out);
+      static void HalveRow(const uint8_t* row0, const uint8_t* row1, int dstWidth, uint8_t* out);
+      static void InterleaveRow(const uint8_t* first, const uint8_t* second, int width, uint8_t* out);
+      static void RgbaRow(const uint8_t* y, const uint8_t* u, const uint8_t* v, int width, uint8_t* out);
+
+  };
+
+}
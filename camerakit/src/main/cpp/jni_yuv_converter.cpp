@@ -0,0 +1,162 @@
+/**
+ *
+ */
+
+#include <jni.h>
+#include <android/log.h>
+
+#include "camerakit/YuvConverter.hpp"
+
+namespace camerakit {
+
+  static bool PlaneFits(jlong capacity, jint offset, int rows, int rowStride, int columns, int pixelStride) {
+      if (offset < 0 || rows <= 0 || columns <= 0) {
+          return false;
+      }
+      jlong extent = (jlong) (rows - 1) * rowStride + (jlong) (columns - 1) * pixelStride + 1;
+      return offset + extent <= capacity;
+  }
+
+  static uint8_t* DirectAddress(JNIEnv* env, jobject buffer, jlong* capacity) {
+      if (buffer == NULL) {
+          *capacity = 0;
+          return NULL;
+      }
+      uint8_t* address = (uint8_t*) env->GetDirectBufferAddress(buffer);
+      *capacity = env->GetDirectBufferCapacity(buffer);
+      return address;
+  }
+
+  // takes no JNI calls, so it may run inside a GetPrimitiveArrayCritical region
+  static jboolean Convert(const uint8_t* y, jlong yCapacity, jint yOffset,
+                          const uint8_t* u, jlong uCapacity, jint uOffset,
+                          const uint8_t* v, jlong vCapacity, jint vOffset,
+                          jint yRowStride, jint uvRowStride, jint uvPixelStride,
+                          jint width, jint height, jint output,
+                          uint8_t* out, jlong dstCapacity, jint dstOffset, jint dstWidth, jint dstHeight) {
+      if (output < YuvConverter::OUTPUT_I420 || output > YuvConverter::OUTPUT_Y) {
+          return JNI_FALSE;
+      }
+      YuvConverter::Output format = (YuvConverter::Output) output;
+
+      if (y == NULL || !PlaneFits(yCapacity, yOffset, height, yRowStride, width, 1)) {
+          return JNI_FALSE;
+      }
+
+      if (format != YuvConverter::OUTPUT_Y) {
+          int chromaWidth = (width + 1) / 2;
+          int chromaHeight = (height + 1) / 2;
+          if (u == NULL || v == NULL
+                  || !PlaneFits(uCapacity, uOffset, chromaHeight, uvRowStride, chromaWidth, uvPixelStride)
+                  || !PlaneFits(vCapacity, vOffset, chromaHeight, uvRowStride, chromaWidth, uvPixelStride)) {
+              return JNI_FALSE;
+          }
+      }
+
+      if (out == NULL || dstOffset < 0 || dstOffset > dstCapacity) {
+          return JNI_FALSE;
+      }
+
+      YuvImage image = YuvConverter::Image(y + yOffset,
+                                           u != NULL ? u + uOffset : NULL,
+                                           v != NULL ? v + vOffset : NULL,
+                                           yRowStride, uvRowStride, uvPixelStride, width, height);
+
+      bool result = YuvConverter::Convert(image, format, out + dstOffset, (size_t) (dstCapacity - dstOffset),
+                                          dstWidth, dstHeight);
+      return result ? JNI_TRUE : JNI_FALSE;
+  }
+
+  // ----------------------------------------------------------------------------------------
+
+  static jboolean YuvConverter_convertBuffers(JNIEnv* env, jobject thiz,
+                                              jobject yBuffer, jint yOffset,
+                                              jobject uBuffer, jint uOffset,
+                                              jobject vBuffer, jint vOffset,
+                                              jint yRowStride, jint uvRowStride, jint uvPixelStride,
+                                              jint width, jint height, jint output,
+                                              jobject dst, jint dstOffset, jint dstWidth, jint dstHeight) {
+      jlong yCapacity, uCapacity, vCapacity;
+      const uint8_t* y = DirectAddress(env, yBuffer, &yCapacity);
+      const uint8_t* u = DirectAddress(env, uBuffer, &uCapacity);
+      const uint8_t* v = DirectAddress(env, vBuffer, &vCapacity);
+      jlong dstCapacity;
+      uint8_t* out = DirectAddress(env, dst, &dstCapacity);
+      return Convert(y, yCapacity, yOffset, u, uCapacity, uOffset, v, vCapacity, vOffset,
+                     yRowStride, uvRowStride, uvPixelStride, width, height, output,
+                     out, dstCapacity, dstOffset, dstWidth, dstHeight);
+  }
+
+  static jboolean YuvConverter_convertArray(JNIEnv* env, jobject thiz,
+                                            jbyteArray src, jint yOffset, jint uOffset, jint vOffset,
+                                            jint yRowStride, jint uvRowStride, jint uvPixelStride,
+                                            jint width, jint height, jint output,
+                                            jobject dst, jint dstOffset, jint dstWidth, jint dstHeight) {
+      if (src == NULL) {
+          return JNI_FALSE;
+      }
+
+      // JNI calls are not allowed while the array is held, so the destination is resolved first
+      jlong dstCapacity;
+      uint8_t* out = DirectAddress(env, dst, &dstCapacity);
+      if (out == NULL) {
+          return JNI_FALSE;
+      }
+
+      jlong capacity = env->GetArrayLength(src);
+      uint8_t* data = (uint8_t*) env->GetPrimitiveArrayCritical(src, NULL);
+      if (data == NULL) {
+          return JNI_FALSE;
+      }
+
+      const uint8_t* u = uOffset >= 0 ? data : NULL;
+      const uint8_t* v = vOffset >= 0 ? data : NULL;
+      jboolean result = Convert(data, capacity, yOffset, u, capacity, uOffset, v, capacity, vOffset,
+                                yRowStride, uvRowStride, uvPixelStride, width, height, output,
+                                out, dstCapacity, dstOffset, dstWidth, dstHeight);
+
+      env->ReleasePrimitiveArrayCritical(src, data, JNI_ABORT);
+      return result;
+  }
+
+  static void YuvConverter_setSimdEnabled(JNIEnv* env, jobject thiz, jboolean enabled) {
+      YuvConverter::SetSimdEnabled(enabled == JNI_TRUE);
+  }
+
+  static jboolean YuvConverter_isSimdEnabled(JNIEnv* env, jobject thiz) {
+      return YuvConverter::IsSimdEnabled() ? JNI_TRUE : JNI_FALSE;
+  }
+
+  static jboolean YuvConverter_isSimdAvailable(JNIEnv* env, jobject thiz) {
+      return YuvConverter::IsSimdAvailable() ? JNI_TRUE : JNI_FALSE;
+  }
+
+  // ----------------------------------------------------------------------------------------
+
+  namespace jni {
+
+    const char* const yuvConverterClassPathName = "com/camerakit/util/YuvConverter";
+
+    static JNINativeMethod yuvConverterMethods[] = {
+        {"nativeConvertBuffers",   "(Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;ILjava/nio/ByteBuffer;IIIIIIILjava/nio/ByteBuffer;III)Z", (void*) YuvConverter_convertBuffers},
+        {"nativeConvertArray",     "([BIIIIIIIIILjava/nio/ByteBuffer;III)Z",                                                          (void*) YuvConverter_convertArray},
+        {"nativeSetSimdEnabled",   "(Z)V",                                                                                            (void*) YuvConverter_setSimdEnabled},
+        {"nativeIsSimdEnabled",    "()Z",                                                                                             (void*) YuvConverter_isSimdEnabled},
+        {"nativeIsSimdAvailable",  "()Z",                                                                                             (void*) YuvConverter_isSimdAvailable}
+    };
+
+    int register_YuvConverter(JNIEnv* env) {
+        jclass clazz = env->FindClass(yuvConverterClassPathName);
+        if (clazz == NULL) {
+            // FindClass has already thrown NoClassDefFoundError, which surfaces from JNI_OnLoad
+            __android_log_print(ANDROID_LOG_ERROR, "YuvConverter", "class %s not found", yuvConverterClassPathName);
+            return -1;
+        }
+
+        int result = env->RegisterNatives(clazz, yuvConverterMethods, sizeof(yuvConverterMethods) / sizeof(yuvConverterMethods[0]));
+        return result;
+    }
+
+  }
+
+}
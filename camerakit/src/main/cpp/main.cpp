@@ -8,6 +8,7 @@ namespace camerakit {
   namespace jni {
     extern int register_CameraSurfaceView(JNIEnv* env);
     extern int register_CameraSurfaceTexture(JNIEnv* env);
+    extern int register_YuvConverter(JNIEnv* env);
   }
 }
 
@@ -21,5 +22,6 @@ JNIEXPORT jint JNI_OnLoad(JavaVM* vm, void* reserved) {
 
     jni::register_CameraSurfaceView(env);
     jni::register_CameraSurfaceTexture(env);
+    jni::register_YuvConverter(env);
     return JNI_VERSION_1_6;
 }
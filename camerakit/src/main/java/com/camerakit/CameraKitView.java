@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.pm.PackageManager;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
@@ -18,18 +19,36 @@ import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 
+import com.camerakit.api.CameraMetrics;
+import com.camerakit.api.CaptureTimeline;
 import com.camerakit.api.FrameCallBack;
+import com.camerakit.frame.Frame;
+import com.camerakit.frame.FrameBackpressure;
+import com.camerakit.frame.FrameCopyMode;
+import com.camerakit.frame.FrameGovernor;
+import com.camerakit.frame.FrameListener;
+import com.camerakit.frame.FrameStream;
 import com.camerakit.type.CameraFacing;
 import com.camerakit.type.CameraFlash;
 import com.camerakit.type.CameraSize;
+import com.camerakit.type.PhotoRotation;
+import com.camerakit.type.SavedPhoto;
 import com.camerakit.ui.CameraFocusView;
+import com.camerakit.util.PhotoSizePolicy;
+import com.camerakit.util.PostProcessor;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.nio.channels.FileChannel;
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import kotlinx.coroutines.flow.Flow;
 
 import jpegkit.Jpeg;
 
@@ -193,6 +212,53 @@ public class CameraKitView extends GestureLayout {
 
     }
 
+    /**
+     *
+     */
+    public interface ThumbnailCallback {
+
+        /**
+         * @param view
+         * @param thumbnail small upright preview of the photo that is still being captured
+         */
+        void onThumbnail(CameraKitView view, Bitmap thumbnail);
+
+    }
+
+    /**
+     *
+     */
+    public interface SaveCallback {
+
+        /**
+         * @param view
+         * @param photo where the image was written, its size and sensor timestamp
+         */
+        void onSaved(CameraKitView view, SavedPhoto photo);
+
+        /**
+         * @param view
+         * @param e    the capture or write failure
+         */
+        void onError(CameraKitView view, Exception e);
+
+    }
+
+    /**
+     *
+     */
+    public interface BurstCallback {
+
+        /**
+         * @param view
+         * @param index     position of the shot in the burst, from 0
+         * @param timestamp sensor timestamp of the shot in nanoseconds
+         * @param jpeg
+         */
+        void onImage(CameraKitView view, int index, long timestamp, byte[] jpeg);
+
+    }
+
     /**
      *
      */
@@ -272,7 +338,7 @@ public class CameraKitView extends GestureLayout {
         mFocus = a.getInteger(R.styleable.CameraKitView_camera_focus, CameraKit.FOCUS_AUTO);
         mZoomFactor = a.getFloat(R.styleable.CameraKitView_camera_zoomFactor, 1.0f);
         mPermissions = a.getInteger(R.styleable.CameraKitView_camera_permissions, PERMISSION_CAMERA);
-        mImageMegaPixels = a.getFloat(R.styleable.CameraKitView_camera_imageMegaPixels, 2f);
+        mImageMegaPixels = a.getFloat(R.styleable.CameraKitView_camera_imageMegaPixels, CameraPreview.DEFAULT_PHOTO_MEGAPIXELS);
         mImageJpegQuality = a.getInteger(R.styleable.CameraKitView_camera_imageJpegQuality, 100);
 
         a.recycle();
@@ -453,6 +519,10 @@ public class CameraKitView extends GestureLayout {
             return;
         }
 
+        // the camera thread loads the saved profile while the permissions are checked here
+        cameraFacing = getFacing() == CameraKit.FACING_BACK ? CameraFacing.BACK : CameraFacing.FRONT;
+        mCameraPreview.prepare(cameraFacing);
+
         List<String> missingPermissions = getMissingPermissions();
         if (Build.VERSION.SDK_INT >= 23 && missingPermissions.size() > 0) {
             Activity activity = null;
@@ -494,7 +564,6 @@ public class CameraKitView extends GestureLayout {
         setFlash(mFlash);
         setImageMegaPixels(mImageMegaPixels);
 
-        cameraFacing = getFacing() == CameraKit.FACING_BACK ? CameraFacing.BACK : CameraFacing.FRONT;
         //initCameraPreview();
         mCameraPreview.start(cameraFacing);
     }
@@ -538,28 +607,337 @@ public class CameraKitView extends GestureLayout {
         mCameraPreview.startCamera2PreView(callback);
     }
 
+    /**
+     * Delivers preview frames from a bounded buffer pool. Every {@link com.camerakit.frame.Frame}
+     * passed to the listener must be released once the listener is done with it.
+     *
+     * @param listener receives pooled frames
+     */
+    public void startPreView(FrameListener listener) {
+        mCameraPreview.startCamera2PreView(listener);
+    }
+
+    /**
+     * Stops the frames of every callback and listener.
+     */
     public void stopPreView() {
         mCameraPreview.stopCamera2PreView();
     }
+
+    /**
+     * Stops the frames of {@code callback} only; a {@link FrameListener} keeps receiving frames.
+     */
+    public void stopPreView(FrameCallBack callback) {
+        mCameraPreview.stopCamera2PreView(callback);
+    }
+
+    /**
+     * Stops the frames of {@code listener} only; a {@link FrameCallBack} keeps receiving frames.
+     */
+    public void stopPreView(FrameListener listener) {
+        mCameraPreview.stopCamera2PreView(listener);
+    }
+
+    /**
+     * Selects how frames are queued when the {@link FrameListener} falls behind.
+     *
+     * @param backpressure policy applied between the camera and the listener
+     * @param capacity     queue size for {@link FrameBackpressure#DROP_OLDEST} and
+     *                     {@link FrameBackpressure#BLOCK_PRODUCER}
+     */
+    public void setFrameBackpressure(FrameBackpressure backpressure, int capacity) {
+        mCameraPreview.getFrameStream().setBackpressure(backpressure, capacity);
+    }
+
+    /**
+     * Cold flow of analysis frames, conflated to the newest frame while the collector is busy.
+     * The flow completes when the preview stops. Every emitted frame must be released.
+     *
+     * @return flow of pooled frames
+     */
+    public Flow<Frame> frames() {
+        return mCameraPreview.frames(FrameBackpressure.KEEP_LATEST, FrameStream.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Limits frames delivered to a {@link FrameListener} to a region of this view. The region is
+     * cropped and downscaled before it is copied, and frames are delivered as planar I420 (or
+     * luma only) in direct buffers.
+     *
+     * @param left        left edge of the region in view pixels
+     * @param top         top edge of the region in view pixels
+     * @param right       right edge of the region in view pixels
+     * @param bottom      bottom edge of the region in view pixels
+     * @param targetWidth maximum upright width of delivered frames, or 0 for full resolution
+     */
+    public void setFrameRegion(float left, float top, float right, float bottom, int targetWidth) {
+        mCameraPreview.setFrameRegion(left, top, right, bottom, targetWidth);
+    }
+
+    public void clearFrameRegion() {
+        mCameraPreview.clearFrameRegion();
+    }
+
+    /**
+     * Adapts the analysis frame rate to the {@link FrameListener}. Frames skipped by the
+     * governor are never copied; the preview keeps running at full rate.
+     *
+     * @param mode      governor mode
+     * @param maxFps    frame rate ceiling, or 0 for none
+     * @param cpuBudget share of wall time the listener may spend in onFrame, for
+     *                  {@link FrameGovernor.Mode#CPU_BUDGET}
+     */
+    public void setFrameGovernor(FrameGovernor.Mode mode, float maxFps, float cpuBudget) {
+        mCameraPreview.getFrameStream().getGovernor().configure(mode, maxFps, cpuBudget);
+    }
+
+    /**
+     * Selects whether frames are copied into pooled buffers or wrap the camera image directly.
+     * With {@link FrameCopyMode#ZERO_COPY} use {@link Frame#planeBuffer(int)} and release every
+     * frame promptly: the camera only has a few images and stalls while they are all held.
+     *
+     * @param copyMode how frame bytes reach the {@link FrameListener}
+     */
+    public void setFrameCopyMode(FrameCopyMode copyMode) {
+        mCameraPreview.getFrameStream().setCopyMode(copyMode);
+    }
+
+    /**
+     * Runs {@link FrameListener} callbacks on the given executor. By default frames are delivered
+     * on a dedicated background thread, never on the main thread.
+     *
+     * @param executor executor for frame callbacks, or null for the default delivery thread
+     */
+    public void setFrameCallbackExecutor(Executor executor) {
+        mCameraPreview.getFrameStream().setCallbackExecutor(executor);
+    }
+
+    /**
+     * @return the pooled frame stream, for inspecting pool and delivery counters
+     */
+    public FrameStream getFrameStream() {
+        return mCameraPreview.getFrameStream();
+    }
+
+    /**
+     * Receives a {@link CaptureTimeline} for every finished photo capture, from the shutter call
+     * through to the main thread post. The same stages appear as systrace sections; aggregated
+     * percentiles are in {@link CameraMetrics#getCaptureTimeline()}.
+     *
+     * @param listener timeline listener, or null to stop receiving timelines
+     */
+    public void setCaptureTimelineListener(CaptureTimeline.Listener listener) {
+        mCameraPreview.getCameraMetrics().setCaptureTimelineListener(listener);
+    }
+
+    /**
+     * @return latency counters of the active camera implementation
+     */
+    public CameraMetrics getCameraMetrics() {
+        return mCameraPreview.getCameraMetrics();
+    }
     //-lijiwei add for get frame data
 
     /**
      * @param callback
      */
     public void captureImage(final ImageCallback callback) {
+        captureImage(callback, null);
+    }
+
+    /**
+     * Captures an image and delivers a small thumbnail of it first. The thumbnail is taken from
+     * the same capture (or the nearest preview frame) and arrives about a frame after the call,
+     * well before the full-resolution JPEG. Both callbacks run on the main thread. An image
+     * dropped by post-processing is reported to the {@link ErrorListener} instead.
+     *
+     * @param callback          receives the full-resolution JPEG
+     * @param thumbnailCallback receives the thumbnail, or null for none
+     */
+    public void captureImage(final ImageCallback callback, final ThumbnailCallback thumbnailCallback) {
+        CameraPreview.ThumbnailCallback previewThumbnailCallback = null;
+        if (thumbnailCallback != null) {
+            previewThumbnailCallback = new CameraPreview.ThumbnailCallback() {
+                @Override
+                public void onThumbnail(@NotNull final Bitmap thumbnail) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            thumbnailCallback.onThumbnail(CameraKitView.this, thumbnail);
+                        }
+                    });
+                }
+            };
+        }
         mCameraPreview.capturePhoto(new CameraPreview.PhotoCallback() {
             @Override
-            public void onCapture(@NotNull final byte[] jpeg) {
+            public void onCapture(@NotNull final byte[] jpeg, @NotNull final CaptureTimeline timeline) {
                 post(new Runnable() {
                     @Override
                     public void run() {
+                        timeline.mark(CaptureTimeline.Stage.UI_POSTED);
                         callback.onImage(CameraKitView.this, jpeg);
+                        timeline.finish();
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NotNull Exception e) {
+                postError(new CameraException("image dropped", e));
+            }
+        }, previewThumbnailCallback);
+    }
+
+    /**
+     * Captures an image straight into a file. The JPEG is written from the camera's buffer on a
+     * background thread without passing through a byte array, so rapid shooting keeps the heap
+     * flat. The callback is posted to the main thread once the file is written.
+     *
+     * @param file     destination, created or truncated
+     * @param fsync    whether to force the data to storage before reporting success
+     * @param callback receives the file metadata or the failure
+     */
+    public void captureImage(File file, boolean fsync, SaveCallback callback) {
+        mCameraPreview.capturePhoto(file, fsync, saveCallback(callback));
+    }
+
+    /**
+     * Captures an image into a file channel at its current position. The channel is left open.
+     *
+     * @param channel  destination channel
+     * @param fsync    whether to force the data to storage before reporting success
+     * @param callback receives the photo metadata or the failure
+     */
+    public void captureImage(FileChannel channel, boolean fsync, SaveCallback callback) {
+        mCameraPreview.capturePhoto(channel, fsync, saveCallback(callback));
+    }
+
+    /**
+     * Captures an image into a stream, which is flushed but left open.
+     *
+     * @param stream   destination stream
+     * @param callback receives the photo metadata or the failure
+     */
+    public void captureImage(OutputStream stream, SaveCallback callback) {
+        mCameraPreview.capturePhoto(stream, saveCallback(callback));
+    }
+
+    private CameraPreview.PhotoSaveCallback saveCallback(final SaveCallback callback) {
+        return new CameraPreview.PhotoSaveCallback() {
+            @Override
+            public void onSaved(@NotNull final SavedPhoto photo) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSaved(CameraKitView.this, photo);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NotNull final Exception e) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onError(CameraKitView.this, e);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Captures {@code count} images as one pipelined burst. Results are posted to the main thread
+     * in order; an image that cannot be processed is reported to the {@link ErrorListener}. Call {@link #setBurstCapacity(int)} with the burst size before the preview starts
+     * so the camera can sustain its full still rate.
+     *
+     * @param count    number of images in the burst
+     * @param callback receives each image with its index and timestamp
+     */
+    public void captureBurst(int count, final BurstCallback callback) {
+        mCameraPreview.captureBurst(count, new CameraPreview.BurstCallback() {
+            @Override
+            public void onCapture(final int index, final long timestamp, @NotNull final byte[] jpeg) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onImage(CameraKitView.this, index, timestamp, jpeg);
                     }
                 });
             }
+
+            @Override
+            public void onError(int index, @NotNull Exception e) {
+                postError(new CameraException("burst image " + index + " dropped", e));
+            }
+        });
+    }
+
+    private void postError(final CameraException error) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mErrorListener != null) {
+                    mErrorListener.onError(CameraKitView.this, error);
+                }
+            }
         });
     }
 
+    /**
+     * Enables zero-shutter-lag capture. While the preview runs, the camera keeps a ring of recent
+     * full-resolution frames; {@link #captureImage(ImageCallback)} then encodes the frame closest
+     * to the call instead of starting a new capture. Shots with the flash on still use a regular
+     * capture. Takes effect when the preview starts.
+     *
+     * @param budgetBytes memory the ring may use, or 0 to disable zero-shutter-lag capture
+     */
+    public void setZeroShutterLag(long budgetBytes) {
+        mCameraPreview.setZslBudget(budgetBytes);
+    }
+
+    /**
+     * Bounds the background work done on captured images: rotation, zero-shutter-lag encoding
+     * and saving. When the queue is full the rejection policy decides which image is dropped;
+     * a dropped {@link #captureImage(File, boolean, SaveCallback)} reports through
+     * {@link SaveCallback#onError(CameraKitView, Exception)}.
+     *
+     * @param concurrency images processed at once
+     * @param queueSize   images allowed to wait
+     * @param rejection   which image is dropped when the queue is full
+     */
+    public void setPostProcessing(int concurrency, int queueSize, PostProcessor.Rejection rejection) {
+        mCameraPreview.getPostProcessor().configure(concurrency, queueSize, rejection);
+    }
+
+    /**
+     * @return the post-processing executor, for its queue wait and processing time metrics
+     */
+    public PostProcessor getPostProcessor() {
+        return mCameraPreview.getPostProcessor();
+    }
+
+    /**
+     * Sets the largest burst the photo queue is sized for. Takes effect when the preview starts.
+     *
+     * @param count burst size, at least 2
+     */
+    public void setBurstCapacity(int count) {
+        mCameraPreview.setBurstCapacity(count);
+    }
+
+    /**
+     * Selects how captured images are turned upright. {@link PhotoRotation#METADATA} skips the
+     * decode and re-encode of {@link PhotoRotation#PIXELS} by recording the rotation in the JPEG
+     * orientation tag, which every EXIF-aware viewer honours.
+     *
+     * @param photoRotation rotation applied to images from {@link #captureImage(ImageCallback)}
+     */
+    public void setPhotoRotation(PhotoRotation photoRotation) {
+        mCameraPreview.setPhotoRotation(photoRotation);
+    }
+
     /**
      *
      */
@@ -937,6 +1315,17 @@ public class CameraKitView extends GestureLayout {
         return mImageMegaPixels;
     }
 
+    /**
+     * Replaces how the photo size is chosen from the camera's supported JPEG sizes. By default
+     * the size matching the preview aspect ratio closest to {@link #getImageMegaPixels()} is
+     * used. Decisions are cached per camera; takes effect when the preview next starts.
+     *
+     * @param policy size policy, or null for the default
+     */
+    public void setPhotoSizePolicy(PhotoSizePolicy policy) {
+        mCameraPreview.setPhotoSizePolicy(policy);
+    }
+
     /**
      * @param gestureListener
      */
@@ -0,0 +1,297 @@
+package com.camerakit
+
+import android.util.Log
+import com.camerakit.CameraPreview.CameraState
+import com.camerakit.CameraPreview.LifecycleState
+import com.camerakit.api.CameraMetrics
+import com.camerakit.type.CameraFacing
+import com.camerakit.util.LatencyStats
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Moves the camera towards what the host lifecycle and the preview surface ask for. A single
+ * coroutine in [scope] is the only writer of the camera state and consumes a queue of events.
+ * [start], [resume], [pause], [stop] and [onSurfaceReady] only record what is wanted. The machine
+ * drains the queue before it acts, so a burst of pause/resume calls settles on the last request
+ * without touching the camera in between.
+ *
+ * Steps that wait on the camera give up after [stepTimeoutMillis]. A preview start is abandoned
+ * as soon as a queued event no longer wants the preview. An open cannot be called off, so it is
+ * awaited and then undone. After a failed step the machine waits for the next host event rather
+ * than retrying on its own.
+ *
+ * The startup timings in [metrics], [CameraMetrics.startToOpen], [CameraMetrics.startToSurface]
+ * and [CameraMetrics.timeToFirstFrame], are measured here from the last [start].
+ */
+internal class CameraLifecycle(scope: CoroutineScope,
+                               private val camera: Camera,
+                               private val metrics: CameraMetrics,
+                               private val stepTimeoutMillis: Long = DEFAULT_STEP_TIMEOUT_MILLIS) {
+
+    /**
+     * The camera work each step starts. Calls are made on the machine's coroutine and return
+     * before the camera is done; completion arrives through [onCameraOpened] and [onPreviewStarted].
+     */
+    interface Camera {
+        fun open(facing: CameraFacing)
+        /** Starts the preview, or returns false if it cannot start yet. */
+        fun startPreview(): Boolean
+        fun stopPreview()
+        fun close()
+        fun onCameraState(state: CameraState)
+    }
+
+    private sealed class Event {
+        class Start(val facing: CameraFacing, val time: Long) : Event()
+        object Resume : Event()
+        object Pause : Event()
+        object Stop : Event()
+        class SurfaceReady(val time: Long) : Event()
+        object Opened : Event()
+        object PreviewStarted : Event()
+        object Closed : Event()
+    }
+
+    private enum class Step {
+        OPEN,
+        START_PREVIEW,
+        STOP_PREVIEW,
+        CLOSE;
+    }
+
+    private enum class Outcome {
+        DONE,
+        ABANDONED,
+        TIMED_OUT;
+    }
+
+    private val events = Channel<Event>(Channel.UNLIMITED)
+
+    // only touched by the machine's coroutine
+    private var lifecycle = LifecycleState.STOPPED
+    private var facing = CameraFacing.BACK
+    private var surfaceReady = false
+    private var state = CameraState.CAMERA_CLOSED
+    private var openFacing = CameraFacing.BACK
+    private var stalled = false
+    // System.nanoTime() of the last start, 0 once the first frame of that start has been seen
+    private var startTime = 0L
+
+    init {
+        scope.launch {
+            for (event in events) {
+                apply(event)
+                while (true) {
+                    apply(events.poll() ?: break)
+                }
+                reconcile()
+            }
+        }
+    }
+
+    fun start(facing: CameraFacing) = send(Event.Start(facing, System.nanoTime()))
+
+    fun resume() = send(Event.Resume)
+
+    fun pause() = send(Event.Pause)
+
+    fun stop() = send(Event.Stop)
+
+    fun onSurfaceReady() = send(Event.SurfaceReady(System.nanoTime()))
+
+    fun onCameraOpened() = send(Event.Opened)
+
+    fun onPreviewStarted() = send(Event.PreviewStarted)
+
+    fun onCameraClosed() = send(Event.Closed)
+
+    private fun send(event: Event) {
+        events.offer(event)
+    }
+
+    private fun apply(event: Event) {
+        when (event) {
+            is Event.Start -> {
+                lifecycle = LifecycleState.STARTED
+                facing = event.facing
+                startTime = event.time
+                if (surfaceReady) {
+                    // the surface outlived the last stop
+                    metrics.startToSurface.record(0L)
+                }
+            }
+            Event.Resume -> lifecycle = LifecycleState.RESUMED
+            Event.Pause -> lifecycle = LifecycleState.PAUSED
+            Event.Stop -> {
+                lifecycle = LifecycleState.STOPPED
+                startTime = 0L
+            }
+            is Event.SurfaceReady -> {
+                if (!surfaceReady && startTime != 0L) {
+                    metrics.startToSurface.record(event.time - startTime)
+                }
+                surfaceReady = true
+            }
+            Event.Closed -> {
+                // our own close has already moved to CAMERA_CLOSED; anything else is the
+                // device going away underneath us
+                if (state != CameraState.CAMERA_CLOSED && state != CameraState.CAMERA_OPENING) {
+                    Log.d("CameraLifecycle", "camera closed unexpectedly in $state")
+                    setState(CameraState.CAMERA_CLOSED)
+                    stalled = true
+                }
+                return
+            }
+            Event.Opened, Event.PreviewStarted -> {
+                // only meaningful while a step awaits them
+                return
+            }
+        }
+        stalled = false
+    }
+
+    private fun target(): CameraState = when (lifecycle) {
+        LifecycleState.STOPPED -> CameraState.CAMERA_CLOSED
+        LifecycleState.PAUSED -> CameraState.CAMERA_OPENED
+        LifecycleState.STARTED,
+        LifecycleState.RESUMED -> if (surfaceReady) CameraState.PREVIEW_STARTED else CameraState.CAMERA_OPENED
+    }
+
+    private fun nextStep(): Step? {
+        val target = target()
+        val open = state != CameraState.CAMERA_CLOSED
+        val previewing = state == CameraState.PREVIEW_STARTED
+        return when {
+            previewing && (target != CameraState.PREVIEW_STARTED || openFacing != facing) -> Step.STOP_PREVIEW
+            open && (target == CameraState.CAMERA_CLOSED || openFacing != facing) -> Step.CLOSE
+            !open && target != CameraState.CAMERA_CLOSED -> Step.OPEN
+            open && !previewing && target == CameraState.PREVIEW_STARTED -> Step.START_PREVIEW
+            else -> null
+        }
+    }
+
+    private suspend fun reconcile() {
+        while (!stalled) {
+            val step = nextStep() ?: return
+            val begin = System.nanoTime()
+            val completed = perform(step)
+            val elapsed = System.nanoTime() - begin
+            transitionStats(step).record(elapsed)
+            Log.d("CameraLifecycle", "$step ${if (completed) "done" else "failed"} in ${elapsed / 1000000}ms")
+            if (!completed) {
+                metrics.countTransitionFailure()
+                stalled = true
+            }
+        }
+    }
+
+    private suspend fun perform(step: Step): Boolean {
+        return when (step) {
+            Step.OPEN -> {
+                setState(CameraState.CAMERA_OPENING)
+                openFacing = facing
+                if (call { camera.open(facing) } && await(Event.Opened) { false } == Outcome.DONE) {
+                    setState(CameraState.CAMERA_OPENED)
+                    if (startTime != 0L) {
+                        metrics.startToOpen.record(System.nanoTime() - startTime)
+                    }
+                    true
+                } else {
+                    call { camera.close() }
+                    setState(CameraState.CAMERA_CLOSED)
+                    false
+                }
+            }
+            Step.START_PREVIEW -> {
+                setState(CameraState.PREVIEW_STARTING)
+                var started = false
+                if (!call { started = camera.startPreview() } || !started) {
+                    setState(CameraState.PREVIEW_STOPPED)
+                    return false
+                }
+                val outcome = await(Event.PreviewStarted) {
+                    state == CameraState.CAMERA_CLOSED || target() != CameraState.PREVIEW_STARTED || openFacing != facing
+                }
+                if (state == CameraState.CAMERA_CLOSED) {
+                    return false
+                }
+                if (outcome == Outcome.DONE) {
+                    setState(CameraState.PREVIEW_STARTED)
+                    if (startTime != 0L) {
+                        metrics.timeToFirstFrame.record(System.nanoTime() - startTime)
+                        startTime = 0L
+                    }
+                } else {
+                    call { camera.stopPreview() }
+                    setState(CameraState.PREVIEW_STOPPED)
+                }
+                outcome != Outcome.TIMED_OUT
+            }
+            Step.STOP_PREVIEW -> {
+                setState(CameraState.PREVIEW_STOPPING)
+                val stopped = call { camera.stopPreview() }
+                setState(CameraState.PREVIEW_STOPPED)
+                stopped
+            }
+            Step.CLOSE -> {
+                setState(CameraState.CAMERA_CLOSING)
+                val closed = call { camera.close() }
+                setState(CameraState.CAMERA_CLOSED)
+                closed
+            }
+        }
+    }
+
+    /**
+     * Handles queued events until [expected] arrives. Returns early with [Outcome.ABANDONED] once
+     * [abandon] says the step is no longer wanted.
+     */
+    private suspend fun await(expected: Event, abandon: () -> Boolean): Outcome {
+        return withTimeoutOrNull(stepTimeoutMillis) {
+            var outcome: Outcome? = null
+            while (outcome == null) {
+                val event = events.receive()
+                apply(event)
+                if (event === expected) {
+                    outcome = Outcome.DONE
+                } else if (abandon()) {
+                    outcome = Outcome.ABANDONED
+                }
+            }
+            outcome
+        } ?: Outcome.TIMED_OUT
+    }
+
+    private inline fun call(block: () -> Unit): Boolean {
+        return try {
+            block()
+            true
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            e.printStackTrace()
+            false
+        }
+    }
+
+    private fun setState(state: CameraState) {
+        this.state = state
+        camera.onCameraState(state)
+    }
+
+    private fun transitionStats(step: Step): LatencyStats = when (step) {
+        Step.OPEN -> metrics.openTransition
+        Step.START_PREVIEW -> metrics.startPreviewTransition
+        Step.STOP_PREVIEW -> metrics.stopPreviewTransition
+        Step.CLOSE -> metrics.closeTransition
+    }
+
+    companion object {
+        const val DEFAULT_STEP_TIMEOUT_MILLIS = 5000L
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.camerakit
 
 import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Matrix
 import android.os.Build
 import android.util.AttributeSet
 import android.util.Log
@@ -9,26 +11,74 @@ import android.widget.FrameLayout
 import com.camerakit.api.*
 import com.camerakit.api.camera1.Camera1
 import com.camerakit.api.camera2.Camera2
+import com.camerakit.frame.Frame
+import com.camerakit.frame.FrameBackpressure
+import com.camerakit.frame.FrameListener
+import com.camerakit.frame.FrameRegion
+import com.camerakit.frame.FrameStream
 import com.camerakit.preview.CameraSurfaceTexture
 import com.camerakit.preview.CameraSurfaceTextureListener
 import com.camerakit.preview.CameraSurfaceView
 import com.camerakit.type.CameraFacing
 import com.camerakit.type.CameraFlash
 import com.camerakit.type.CameraSize
+import com.camerakit.type.FrameFormat
+import com.camerakit.type.PhotoRotation
+import com.camerakit.type.SavedPhoto
+import com.camerakit.util.CameraProfile
+import com.camerakit.util.CameraProfileStore
 import com.camerakit.util.CameraSizeCalculator
+import com.camerakit.util.PhotoSizePolicy
+import com.camerakit.util.PhotoSizeSelector
+import com.camerakit.util.PostProcessor
 import jpegkit.Jpeg
 import kotlinx.coroutines.*
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.sendBlocking
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.util.concurrent.CopyOnWriteArraySet
 
 class CameraPreview : FrameLayout, CameraEvents {
 
     companion object {
         private const val FORCE_DEPRECATED_API = false
+
+        // what the fixed 3264x1840 photo size used to give
+        const val DEFAULT_PHOTO_MEGAPIXELS = 6f
     }
 
-    var lifecycleState: LifecycleState = LifecycleState.STOPPED
+    @Volatile
+    private var requestedLifecycleState: LifecycleState = LifecycleState.STOPPED
+
+    /**
+     * The state the host last asked for; the camera follows it asynchronously. Setting it is
+     * the same as calling [start] (with the current facing), [resume], [pause] or [stop].
+     */
+    var lifecycleState: LifecycleState
+        get() = requestedLifecycleState
+        set(state) {
+            when (state) {
+                LifecycleState.STARTED -> start(cameraFacing)
+                LifecycleState.RESUMED -> resume()
+                LifecycleState.PAUSED -> pause()
+                LifecycleState.STOPPED -> stop()
+            }
+        }
+    @Volatile
     var surfaceState: SurfaceState = SurfaceState.SURFACE_WAITING
+    /**
+     * Where the camera is, as written by the lifecycle state machine. Setting it only notifies
+     * [listener]; the camera itself is driven through [lifecycleState].
+     */
+    @Volatile
     var cameraState: CameraState = CameraState.CAMERA_CLOSED
         set(state) {
             field = state
@@ -64,28 +114,93 @@ class CameraPreview : FrameLayout, CameraEvents {
 
     var photoSize: CameraSize = CameraSize(0, 0)
     var flash: CameraFlash = CameraFlash.OFF
-    var imageMegaPixels: Float = 2f
+    var photoRotation: PhotoRotation = PhotoRotation.PIXELS
+    var burstCapacity: Int = 2
+    var zslBudget: Long = 0L
+    var imageMegaPixels: Float = DEFAULT_PHOTO_MEGAPIXELS
+        set(imageMegaPixels) {
+            field = imageMegaPixels
+            if (!customPhotoSizePolicy) {
+                photoSizeSelector.policy = defaultPhotoSizePolicy()
+            }
+        }
+
+    private var customPhotoSizePolicy = false
+    private val photoSizeSelector = PhotoSizeSelector(defaultPhotoSizePolicy())
+
+    /** Picks [photoSize] from the camera's JPEG sizes; pass null to go back to [imageMegaPixels]. */
+    var photoSizePolicy: PhotoSizePolicy?
+        get() = if (customPhotoSizePolicy) photoSizeSelector.policy else null
+        set(policy) {
+            customPhotoSizePolicy = policy != null
+            photoSizeSelector.policy = policy ?: defaultPhotoSizePolicy()
+        }
+    var analysisTargetSize: CameraSize = CameraSize(640, 480)
+    var analysisFormat: FrameFormat = FrameFormat.YUV_420_888
+    var analysisSize: CameraSize = CameraSize(0, 0)
+
+    /**
+     * Whether a start may configure the preview from the capability profile saved after an
+     * earlier successful start, instead of re-deriving every size from the camera's attributes.
+     */
+    var useCapabilityProfile: Boolean = true
 
     private var cameraFacing: CameraFacing = CameraFacing.BACK
+    @Volatile
     private var surfaceTexture: CameraSurfaceTexture? = null
+    @Volatile
     private var attributes: CameraAttributes? = null
 
+    private val profileStore = CameraProfileStore(context)
+    private var profile: CameraProfile? = null
+    // built when the sizes were derived from live attributes; saved once the preview starts
+    @Volatile
+    private var pendingProfile: CameraProfile? = null
+    // loaded by prepare() ahead of the open; only touched on the camera thread
+    private var preparedFacing: CameraFacing? = null
+    private var preparedProfile: CameraProfile? = null
+
+    val frameStream: FrameStream = FrameStream()
+
+    // rotation, encoding and saving run here so the camera thread only does camera work
+    val postProcessor: PostProcessor = PostProcessor()
+    private val frameChannels = CopyOnWriteArraySet<SendChannel<Frame>>()
+    // every frames() collector; the stream has one listener, which hands each of them a reference
+    private val frameCollectors = CopyOnWriteArraySet<FrameListener>()
+    private val frameFanOut = object : FrameListener {
+        override fun onFrame(frame: Frame) {
+            for (collector in frameCollectors) {
+                collector.onFrame(frame.retain())
+            }
+            frame.release()
+        }
+    }
+
     private val cameraSurfaceView: CameraSurfaceView = CameraSurfaceView(context)
 
     private val cameraDispatcher: ExecutorCoroutineDispatcher = newSingleThreadContext("CAMERA")
-    private var cameraOpenContinuation: CancellableContinuation<Unit>? = null
-    private var previewStartContinuation: CancellableContinuation<Unit>? = null
-
-    //标记Camera是否已准备释放
-    private var done = false
+    private val cameraScope = CoroutineScope(SupervisorJob() + cameraDispatcher)
 
     @SuppressWarnings("NewApi")
     private val cameraApi: CameraApi = ManagedCameraApi(
             when (Build.VERSION.SDK_INT < 21 || FORCE_DEPRECATED_API) {
                 true -> Camera1(this)
-                false -> Camera2(this, context)
+                false -> Camera2(this, context, postProcessor)
             })
 
+    val cameraMetrics: CameraMetrics
+        get() = cameraApi.metrics
+
+    private val cameraLifecycle = CameraLifecycle(cameraScope, object : CameraLifecycle.Camera {
+        override fun open(facing: CameraFacing) = openCamera(facing)
+        override fun startPreview(): Boolean = this@CameraPreview.startPreview()
+        override fun stopPreview() = this@CameraPreview.stopPreview()
+        override fun close() = closeCamera()
+        override fun onCameraState(state: CameraState) {
+            cameraState = state
+        }
+    }, cameraApi.metrics)
+
     constructor(context: Context) :
             super(context)
 
@@ -103,69 +218,58 @@ class CameraPreview : FrameLayout, CameraEvents {
             override fun onSurfaceReady(cameraSurfaceTexture: CameraSurfaceTexture) {
                 surfaceTexture = cameraSurfaceTexture
                 surfaceState = SurfaceState.SURFACE_AVAILABLE
-                if (lifecycleState == LifecycleState.STARTED || lifecycleState == LifecycleState.RESUMED) {
-                    //Log.d("CameraPreview", "onSurfaceReady resume")
-                    resume()
-                }
+                cameraLifecycle.onSurfaceReady()
             }
         }
 
         addView(cameraSurfaceView)
     }
 
+    /**
+     * Loads what opening [facing] needs and needs no camera permission, on the camera thread,
+     * so it overlaps whatever the host does before [start], such as checking permissions.
+     */
+    fun prepare(facing: CameraFacing) {
+        if (!useCapabilityProfile) {
+            return
+        }
+        cameraScope.launch {
+            preparedProfile = profileStore.load(facing)
+            preparedFacing = facing
+        }
+    }
+
     fun start(facing: CameraFacing) {
         //Log.d("CameraPreview", "start")
-        GlobalScope.launch(cameraDispatcher) {
-            //Log.d("CameraPreview", "start launch")
-            runBlocking {
-                //Log.d("CameraPreview", "start runBlocking")
-                lifecycleState = LifecycleState.STARTED
-                cameraFacing = facing
-                openCamera()
-                //Log.d("CameraPreview", "start runBlocking end")
-            }
-        }
+        requestedLifecycleState = LifecycleState.STARTED
+        cameraLifecycle.start(facing)
     }
 
     fun resume() {
-        done = false
         //Log.d("CameraPreview", "resume")
-        GlobalScope.launch(cameraDispatcher) {
-            //Log.d("CameraPreview", "resume launch")
-            runBlocking {
-                //Log.d("CameraPreview", "resume runBlocking")
-                lifecycleState = LifecycleState.RESUMED
-                try {
-                    startPreview()
-                } catch (e: Exception) {
-                    //Log.d("CameraPreview", e.toString())
-                }
-                //Log.d("CameraPreview", "resume runBlocking end")
-            }
-        }
+        requestedLifecycleState = LifecycleState.RESUMED
+        cameraLifecycle.resume()
     }
 
     fun pause() {
-        done = true
         //Log.d("CameraPreview", "pause")
-        lifecycleState = LifecycleState.PAUSED
-        stopPreview()
+        requestedLifecycleState = LifecycleState.PAUSED
+        cameraLifecycle.pause()
     }
 
     fun stop() {
         //Log.d("CameraPreview", "stop")
-        lifecycleState = LifecycleState.STOPPED
-        closeCamera()
+        requestedLifecycleState = LifecycleState.STOPPED
+        cameraLifecycle.stop()
     }
 
     fun destroy() {
         //Log.d("CameraPreview", "destroy")
-        cameraOpenContinuation?.cancel()
-        previewStartContinuation?.cancel()
-        cameraDispatcher.cancelChildren()
-        cameraDispatcher.cancel()
+        cameraScope.cancel()
         cameraDispatcher.close()
         cameraApi.destroy()
+        frameStream.release()
+        postProcessor.shutdown()
     }
 
     //+lijiwei.youdao add
@@ -173,20 +277,289 @@ class CameraPreview : FrameLayout, CameraEvents {
         cameraApi.startCamera2PreView(callBack)
     }
 
+    override fun startCamera2PreView(frameStream: FrameStream) {
+        cameraApi.startCamera2PreView(frameStream)
+    }
+
+    fun startCamera2PreView(listener: FrameListener) {
+        frameStream.listener = listener
+        startCamera2PreView(frameStream)
+    }
+
+    /**
+     * Cold flow of analysis frames. Collecting attaches the analysis surface to the repeating
+     * request; cancelling the collector detaches it again, and the flow completes when the
+     * preview stops. [backpressure] applies to this collector only, while it is busy, and
+     * conflates to the newest frame by default. The collector owns each emitted frame and must
+     * release it. Concurrent collectors share the same frames, each holding its own reference;
+     * a [FrameBackpressure.BLOCK_PRODUCER] collector holds up the others while it blocks.
+     */
+    fun frames(backpressure: FrameBackpressure = FrameBackpressure.KEEP_LATEST,
+               capacity: Int = FrameStream.DEFAULT_CAPACITY): Flow<Frame> = flow {
+        val bufferSize = if (backpressure == FrameBackpressure.KEEP_LATEST) 1 else Math.max(1, capacity)
+        val channel = Channel<Frame>(bufferSize)
+        val listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                try {
+                    if (backpressure == FrameBackpressure.BLOCK_PRODUCER) {
+                        // a close() from the collector either takes this frame or fails the send,
+                        // so the delivery thread is never left waiting
+                        channel.sendBlocking(frame)
+                    } else {
+                        // the channel never drops on its own, as that would lose pool buffers
+                        while (!channel.offer(frame)) {
+                            channel.poll()?.let {
+                                frameStream.stats.onDropped()
+                                it.release()
+                            }
+                        }
+                    }
+                } catch (e: Exception) {
+                    frame.release()
+                }
+            }
+        }
+
+        frameStream.ensurePoolCapacity(bufferSize)
+        frameChannels.add(channel)
+        addFrameCollector(listener)
+        try {
+            for (frame in channel) {
+                emit(frame)
+            }
+        } finally {
+            frameChannels.remove(channel)
+            removeFrameCollector(listener)
+            channel.close()
+            // releases what is still queued, including a frame a blocked sender is handing over
+            while (true) {
+                (channel.poll() ?: break).release()
+            }
+        }
+    }
+
+    private fun addFrameCollector(listener: FrameListener) = synchronized(frameCollectors) {
+        frameCollectors.add(listener)
+        if (frameCollectors.size == 1) {
+            startCamera2PreView(frameFanOut)
+        }
+    }
+
+    private fun removeFrameCollector(listener: FrameListener) = synchronized(frameCollectors) {
+        if (frameCollectors.remove(listener) && frameCollectors.isEmpty()) {
+            stopCamera2PreView(frameFanOut)
+        }
+    }
+
+    /**
+     * Restricts analysis frames to a region of this view, downscaled to [targetWidth].
+     */
+    fun setFrameRegion(left: Float, top: Float, right: Float, bottom: Float, targetWidth: Int) {
+        frameStream.setRegion(FrameRegion(left, top, right, bottom, width, height, targetWidth))
+    }
+
+    fun clearFrameRegion() {
+        frameStream.setRegion(null)
+    }
+
     override fun stopCamera2PreView() {
         cameraApi.stopCamera2PreView()
+        frameStream.listener = null
+    }
+
+    override fun stopCamera2PreView(callBack: FrameCallBack) {
+        cameraApi.stopCamera2PreView(callBack)
+    }
+
+    override fun stopCamera2PreView(frameStream: FrameStream) {
+        cameraApi.stopCamera2PreView(frameStream)
+    }
+
+    /** Stops the frames of [listener] only; a [FrameCallBack] keeps receiving its frames. */
+    fun stopCamera2PreView(listener: FrameListener) {
+        if (frameStream.listener !== listener) {
+            return
+        }
+        stopCamera2PreView(frameStream)
+        frameStream.listener = null
     }
     //-lijiwei.youdao add
 
-    fun capturePhoto(callback: PhotoCallback) {
+    /**
+     * Captures a photo. The [CaptureTimeline] handed to [callback] has been marked up to the
+     * rotation; the receiver marks [CaptureTimeline.Stage.UI_POSTED] and finishes it. With a
+     * [thumbnailCallback], a small upright bitmap of the shot arrives first, about a frame after
+     * the shutter.
+     */
+    @JvmOverloads
+    fun capturePhoto(callback: PhotoCallback, thumbnailCallback: ThumbnailCallback? = null) {
+        val shutterTime = System.nanoTime()
+        val timeline = cameraApi.metrics.newCaptureTimeline()
+        timeline.mark(CaptureTimeline.Stage.CAPTURE_CALLED)
+        val photoRotation = photoRotation
+        // the orientation at the shutter, not whenever the rotation task gets to run
+        val rotation = captureOrientation
+        val shutterToBytes = cameraApi.metrics.shutterToBytes(photoRotation)
+        cameraApi.setFlash(flash)
+        cameraApi.setPhotoOrientation(when (photoRotation) {
+            PhotoRotation.PIXELS -> 0
+            PhotoRotation.METADATA -> rotation
+        })
+        if (thumbnailCallback != null) {
+            cameraApi.requestThumbnail { thumbnail ->
+                thumbnailCallback.onThumbnail(rotate(thumbnail, rotation))
+            }
+        }
+        cameraApi.capturePhoto(timeline, { e ->
+            Log.d("CameraPreview", "photo lost: " + e.message)
+            timeline.finish()
+            callback.onError(e)
+        }) {
+            when (photoRotation) {
+                PhotoRotation.PIXELS -> postProcessor.execute({ e ->
+                    Log.d("CameraPreview", "photo dropped: " + e.message)
+                    timeline.finish()
+                    callback.onError(e)
+                }) {
+                    val jpeg = Jpeg(it)
+                    jpeg.rotate(rotation)
+                    val transformedBytes = jpeg.jpegBytes
+                    jpeg.release()
+                    timeline.mark(CaptureTimeline.Stage.ROTATED)
+                    shutterToBytes.record(System.nanoTime() - shutterTime)
+                    callback.onCapture(transformedBytes, timeline)
+                }
+                PhotoRotation.METADATA -> {
+                    shutterToBytes.record(System.nanoTime() - shutterTime)
+                    callback.onCapture(it, timeline)
+                }
+            }
+        }
+    }
+
+    /**
+     * Captures a photo straight into [file]. The camera's JPEG buffer is written through NIO on
+     * a background thread without an intermediate byte array, then [callback] gets the file
+     * metadata. With [fsync] the data is forced to storage before the callback. Only a
+     * [PhotoRotation.PIXELS] shot taken at a non-zero orientation is copied and re-encoded;
+     * [PhotoRotation.METADATA] avoids that.
+     */
+    fun capturePhoto(file: File, fsync: Boolean, callback: PhotoSaveCallback) {
+        savePhoto(file, callback) { buffer ->
+            FileOutputStream(file).channel.use { channel ->
+                writeFully(channel, buffer, fsync)
+            }
+        }
+    }
+
+    /** Captures a photo into [channel] at its current position. The channel is not closed. */
+    fun capturePhoto(channel: FileChannel, fsync: Boolean, callback: PhotoSaveCallback) {
+        savePhoto(null, callback) { buffer ->
+            writeFully(channel, buffer, fsync)
+        }
+    }
+
+    /** Captures a photo into [stream] and flushes it. The stream is not closed. */
+    fun capturePhoto(stream: OutputStream, callback: PhotoSaveCallback) {
+        savePhoto(null, callback) { buffer ->
+            val channel = Channels.newChannel(stream)
+            var written = 0L
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer)
+            }
+            stream.flush()
+            written
+        }
+    }
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer, fsync: Boolean): Long {
+        var written = 0L
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer)
+        }
+        if (fsync) {
+            channel.force(false)
+        }
+        return written
+    }
+
+    private fun savePhoto(file: File?, callback: PhotoSaveCallback, write: (buffer: ByteBuffer) -> Long) {
+        val timeline = cameraApi.metrics.newCaptureTimeline()
+        timeline.mark(CaptureTimeline.Stage.CAPTURE_CALLED)
+        val photoRotation = photoRotation
+        val rotation = captureOrientation
         cameraApi.setFlash(flash)
-        cameraApi.capturePhoto {
-            cameraApi.cameraHandler.post {
-                val jpeg = Jpeg(it)
-                jpeg.rotate(captureOrientation)
-                val transformedBytes = jpeg.jpegBytes
-                jpeg.release()
-                callback.onCapture(transformedBytes)
+        cameraApi.setPhotoOrientation(when (photoRotation) {
+            PhotoRotation.PIXELS -> 0
+            PhotoRotation.METADATA -> rotation
+        })
+        cameraApi.capturePhotoBuffer(timeline, { e ->
+            timeline.finish()
+            callback.onError(e)
+        }) { photo ->
+            postProcessor.execute({ e ->
+                photo.close()
+                timeline.finish()
+                callback.onError(e)
+            }) {
+                val saved: SavedPhoto
+                try {
+                    val buffer = if (photoRotation == PhotoRotation.PIXELS && rotation != 0) {
+                        // turning the pixels needs a decode and re-encode; the camera's image goes
+                        // back to the reader before that starts
+                        val bytes = photo.use { it.toByteArray() }
+                        val jpeg = Jpeg(bytes)
+                        jpeg.rotate(rotation)
+                        val transformedBytes = jpeg.jpegBytes
+                        jpeg.release()
+                        timeline.mark(CaptureTimeline.Stage.ROTATED)
+                        ByteBuffer.wrap(transformedBytes)
+                    } else {
+                        // already upright, or rotated through EXIF: written straight from the camera's image
+                        photo.buffer
+                    }
+                    saved = SavedPhoto(file, write(buffer), photo.timestamp)
+                    // written to the sink rather than into an array
+                    timeline.mark(CaptureTimeline.Stage.BYTES_COPIED)
+                } catch (e: Exception) {
+                    timeline.finish()
+                    callback.onError(e)
+                    return@execute
+                } finally {
+                    photo.close()
+                }
+                timeline.finish()
+                callback.onSaved(saved)
+            }
+        }
+    }
+
+    /**
+     * Takes [count] shots as one pipelined burst. Shots arrive in order with their index and
+     * sensor timestamp. Set [burstCapacity] to the burst size before the preview starts so the
+     * photo queue can hold a whole burst.
+     */
+    fun captureBurst(count: Int, callback: BurstCallback) {
+        val photoRotation = photoRotation
+        val rotation = captureOrientation
+        cameraApi.setPhotoOrientation(when (photoRotation) {
+            PhotoRotation.PIXELS -> 0
+            PhotoRotation.METADATA -> rotation
+        })
+        cameraApi.captureBurst(count) { index, timestamp, jpeg ->
+            when (photoRotation) {
+                // the burst size already bounds the work, so its shots are never turned away for a full queue
+                PhotoRotation.PIXELS -> postProcessor.execute({ e ->
+                    Log.d("CameraPreview", "burst shot $index dropped: " + e.message)
+                    callback.onError(index, e)
+                }, bounded = false) {
+                    val rotated = Jpeg(jpeg)
+                    rotated.rotate(rotation)
+                    val transformedBytes = rotated.jpegBytes
+                    rotated.release()
+                    callback.onCapture(index, timestamp, transformedBytes)
+                }
+                PhotoRotation.METADATA -> callback.onCapture(index, timestamp, jpeg)
             }
         }
     }
@@ -202,36 +575,71 @@ class CameraPreview : FrameLayout, CameraEvents {
         return attributes?.flashes
     }
 
+    private fun rotate(bitmap: Bitmap, degrees: Int): Bitmap {
+        if (degrees == 0) {
+            return bitmap
+        }
+        val matrix = Matrix()
+        matrix.postRotate(degrees.toFloat())
+        val rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, false)
+        bitmap.recycle()
+        return rotated
+    }
+
+    private fun defaultPhotoSizePolicy(): PhotoSizePolicy {
+        return PhotoSizePolicy.MatchAspect(PhotoSizePolicy.Megapixels(imageMegaPixels))
+    }
+
     interface PhotoCallback {
-        fun onCapture(jpeg: ByteArray)
+        fun onCapture(jpeg: ByteArray, timeline: CaptureTimeline)
+        /** The photo was taken but could not be processed, e.g. because post-processing shut down. */
+        fun onError(e: Exception)
+    }
+
+    interface ThumbnailCallback {
+        fun onThumbnail(thumbnail: Bitmap)
+    }
+
+    interface PhotoSaveCallback {
+        fun onSaved(photo: SavedPhoto)
+        fun onError(e: Exception)
+    }
+
+    interface BurstCallback {
+        fun onCapture(index: Int, timestamp: Long, jpeg: ByteArray)
+        fun onError(index: Int, e: Exception)
     }
 
     // CameraEvents:
 
     override fun onCameraOpened(cameraAttributes: CameraAttributes) {
-        cameraState = CameraState.CAMERA_OPENED
         attributes = cameraAttributes
-        //Log.d("CameraPreview", "onCameraOpened cameraOpenContinuation resume and null")
-        cameraOpenContinuation?.resume(Unit)
-        cameraOpenContinuation = null
+        cameraLifecycle.onCameraOpened()
     }
 
     override fun onCameraClosed() {
-        cameraState = CameraState.CAMERA_CLOSED
+        cameraLifecycle.onCameraClosed()
     }
 
     override fun onCameraError() {
     }
 
     override fun onPreviewStarted() {
-        cameraState = CameraState.PREVIEW_STARTED
-        //Log.d("CameraPreview", "onPreviewStarted previewStartContinuation resume and null")
-        previewStartContinuation?.resume(Unit)
-        previewStartContinuation = null
+        val pendingProfile = pendingProfile
+        this.pendingProfile = null
+        if (pendingProfile != null) {
+            // a disk write, kept off the camera thread; unbounded so a busy photo queue cannot drop it
+            postProcessor.execute({ e ->
+                Log.d("CameraPreview", "capability profile not saved: " + e.message)
+            }, bounded = false) {
+                profileStore.save(pendingProfile)
+            }
+        }
+        cameraLifecycle.onPreviewStarted()
     }
 
     override fun onPreviewStopped() {
-        cameraState = CameraState.PREVIEW_STOPPED
+        frameChannels.forEach { it.close() }
     }
 
     override fun onPreviewError() {
@@ -271,90 +679,116 @@ class CameraPreview : FrameLayout, CameraEvents {
 
     // Camera control:
 
-    private suspend fun openCamera(): Unit = suspendCancellableCoroutine {
+    private fun openCamera(facing: CameraFacing) {
         //Log.d("CameraPreview", "openCamera start")
-        //Log.d("CameraPreview", "openCamera cameraOpenContinuation = it")
-        cameraOpenContinuation = it
-        cameraState = CameraState.CAMERA_OPENING
-        cameraApi.open(cameraFacing)
+        cameraFacing = facing
+        profile = when {
+            !useCapabilityProfile -> null
+            preparedFacing == facing -> preparedProfile
+            else -> profileStore.load(facing)
+        }
+        preparedFacing = null
+        preparedProfile = null
+        cameraApi.open(facing, profile?.id)
         //Log.d("CameraPreview", "openCamera end")
     }
 
-    private suspend fun startPreview(): Unit = suspendCancellableCoroutine {
+    private fun startPreview(): Boolean {
         //Log.d("CameraPreview", "startPreview start")
-        //Log.d("CameraPreview", "startPreview previewStartContinuation = it")
-        if (done || cameraState == CameraState.PREVIEW_STARTED) {
-            //已打算结束预览或已开启预览
-            //Log.d("CameraPreview", "startPreview previewStartContinuation resumeWithException and null")
-            it.resumeWithException(IllegalStateException())
-            previewStartContinuation = null
+        val surfaceTexture = surfaceTexture
+        val attributes = attributes
+        if (surfaceTexture == null || attributes == null) {
+            return false
+        }
+        // the camera is open, so its live attributes are known: a profile only saves re-deriving
+        // the sizes, and is dropped before anything is configured from it if the camera changed
+        val profile = profile?.takeIf { it.configKey == profileConfigKey() }
+        if (profile != null && !profile.matches(attributes)) {
+            Log.d("CameraPreview", "capability profile of camera ${profile.id} is stale")
+            this.profile = null
+            profileStore.remove(cameraFacing)
+            configurePreview(surfaceTexture, attributes, null)
         } else {
-            previewStartContinuation = it
-            val surfaceTexture = surfaceTexture
-            val attributes = attributes
-            if (surfaceTexture != null && attributes != null) {
-                cameraState = CameraState.PREVIEW_STARTING
-                previewOrientation = when (cameraFacing) {
-                    CameraFacing.BACK -> (attributes.sensorOrientation - displayOrientation + 360) % 360
-                    CameraFacing.FRONT -> {
-                        val result = (attributes.sensorOrientation + displayOrientation) % 360
-                        (360 - result) % 360
-                    }
-                }
+            configurePreview(surfaceTexture, attributes, profile)
+        }
+        cameraApi.startPreview(surfaceTexture)
+        //Log.d("CameraPreview", "startPreview end")
+        return true
+    }
 
-                Log.d("CameraPreview", "previewOri = $previewOrientation , displayOri = $displayOrientation, sensorOri = ${attributes.sensorOrientation}")
+    /** Applies orientations and sizes, taking the sizes from [profile] when there is one. */
+    private fun configurePreview(surfaceTexture: CameraSurfaceTexture, attributes: CameraAttributes, profile: CameraProfile?) {
+        previewOrientation = when (cameraFacing) {
+            CameraFacing.BACK -> (attributes.sensorOrientation - displayOrientation + 360) % 360
+            CameraFacing.FRONT -> {
+                val result = (attributes.sensorOrientation + displayOrientation) % 360
+                (360 - result) % 360
+            }
+        }
 
-                captureOrientation = when (cameraFacing) {
-                    CameraFacing.BACK -> (attributes.sensorOrientation - displayOrientation + 360) % 360
-                    CameraFacing.FRONT -> (attributes.sensorOrientation + displayOrientation + 360) % 360
-                }
+        frameStream.rotation = previewOrientation
 
-                if (Build.VERSION.SDK_INT >= 21 && !FORCE_DEPRECATED_API) {
-                    surfaceTexture.setRotation(displayOrientation)
-                }
+        Log.d("CameraPreview", "previewOri = $previewOrientation , displayOri = $displayOrientation, sensorOri = ${attributes.sensorOrientation}")
 
-                previewSize = CameraSizeCalculator(attributes.previewSizes)
-                        .findClosestSizeContainingTarget(when (previewOrientation % 180 == 0) {
-                            true -> CameraSize(width, height)
-                            false -> CameraSize(height, width)
-                        })
+        captureOrientation = when (cameraFacing) {
+            CameraFacing.BACK -> (attributes.sensorOrientation - displayOrientation + 360) % 360
+            CameraFacing.FRONT -> (attributes.sensorOrientation + displayOrientation + 360) % 360
+        }
 
-                surfaceTexture.setDefaultBufferSize(previewSize.width, previewSize.height)
-                surfaceTexture.size = when (previewOrientation % 180) {
-                    0 -> previewSize
-                    else -> CameraSize(previewSize.height, previewSize.width)
-                }
+        if (Build.VERSION.SDK_INT >= 21 && !FORCE_DEPRECATED_API) {
+            surfaceTexture.setRotation(displayOrientation)
+        }
 
-                /*photoSize = CameraSizeCalculator(attributes.photoSizes)
-                        .findClosestSizeMatchingArea((imageMegaPixels * 1000000).toInt())*/
-                //拍照的图片大小更改为6M
-                photoSize = when (previewOrientation % 180 == 0) {
-                    true -> CameraSize(3264, 1840)
-                    false -> CameraSize(1840, 3264)
-                }
-                Log.d("CameraPreview", "${photoSize.height} , ${photoSize.width}")
-
-                cameraApi.setPreviewOrientation(previewOrientation)
-                cameraApi.setPreviewSize(previewSize)
-                cameraApi.setPhotoSize(photoSize)
-                cameraApi.startPreview(surfaceTexture)
-            } else {
-                //Log.d("CameraPreview", "startPreview previewStartContinuation resumeWithException and null")
-                it.resumeWithException(IllegalStateException())
-                previewStartContinuation = null
-            }
+        previewSize = profile?.previewSize ?: CameraSizeCalculator(attributes.previewSizes)
+                .findClosestSizeContainingTarget(when (previewOrientation % 180 == 0) {
+                    true -> CameraSize(width, height)
+                    false -> CameraSize(height, width)
+                })
+
+        surfaceTexture.setDefaultBufferSize(previewSize.width, previewSize.height)
+        surfaceTexture.size = when (previewOrientation % 180) {
+            0 -> previewSize
+            else -> CameraSize(previewSize.height, previewSize.width)
         }
-        //Log.d("CameraPreview", "startPreview end")
+        frameStream.textureSize = surfaceTexture.size
+
+        photoSize = profile?.photoSize ?: photoSizeSelector.select(attributes, previewSize)
+
+        cameraApi.setPreviewOrientation(previewOrientation)
+        cameraApi.setPreviewSize(previewSize)
+        cameraApi.setBurstCapacity(burstCapacity)
+        cameraApi.setZslBudget(zslBudget)
+        cameraApi.setPhotoSize(photoSize)
+
+        analysisSize = profile?.analysisSize ?: CameraSizeCalculator(attributes.previewSizes)
+                .findClosestSizeContainingTarget(analysisTargetSize)
+        cameraApi.setAnalysisSize(analysisSize, analysisFormat)
+
+        val configKey = profileConfigKey()
+        pendingProfile = if (profile == null && configKey != null && useCapabilityProfile) {
+            CameraProfile.from(attributes, configKey, previewSize, photoSize, analysisSize)
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Everything besides the camera's capabilities that the chosen sizes depend on, or null when
+     * a custom [photoSizePolicy] makes the choice unreproducible.
+     */
+    private fun profileConfigKey(): String? {
+        if (customPhotoSizePolicy) {
+            return null
+        }
+        return "${width}x$height/$displayOrientation/${analysisTargetSize.width}x${analysisTargetSize.height}/$imageMegaPixels"
     }
 
     private fun stopPreview() {
-        cameraState = CameraState.PREVIEW_STOPPING
         cameraApi.stopPreview()
         //Log.d("CameraPreview", "stopPreview end")
     }
 
     private fun closeCamera() {
-        cameraState = CameraState.CAMERA_CLOSING
         cameraApi.release()
         //Log.d("CameraPreview", "closeCamera end")
     }
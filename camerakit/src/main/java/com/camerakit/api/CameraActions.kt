@@ -1,13 +1,16 @@
 package com.camerakit.api
 
+import android.graphics.Bitmap
 import android.graphics.SurfaceTexture
 import com.camerakit.type.CameraFacing
 import com.camerakit.type.CameraFlash
 import com.camerakit.type.CameraSize
+import com.camerakit.type.FrameFormat
 
 interface CameraActions {
 
-    fun open(facing: CameraFacing)
+    /** Opens the camera facing [facing]; [cameraId] remembered from an earlier run may skip the lookup. */
+    fun open(facing: CameraFacing, cameraId: String? = null)
     fun release()
     fun destroy()
 
@@ -18,7 +21,17 @@ interface CameraActions {
 
     fun setFlash(flash: CameraFlash)
     fun setPhotoSize(size: CameraSize)
-    fun capturePhoto(callback: (jpeg: ByteArray) -> Unit)
+    fun setPhotoOrientation(degrees: Int)
+    fun requestThumbnail(callback: (thumbnail: Bitmap) -> Unit)
+    fun capturePhoto(timeline: CaptureTimeline? = null, onError: (e: Exception) -> Unit = {},
+                     callback: (jpeg: ByteArray) -> Unit)
+    fun capturePhotoBuffer(timeline: CaptureTimeline? = null, onError: (e: Exception) -> Unit = {},
+                           callback: (photo: PhotoBuffer) -> Unit)
+    fun setBurstCapacity(count: Int)
+    fun setZslBudget(bytes: Long)
+    fun captureBurst(count: Int, callback: (index: Int, timestamp: Long, jpeg: ByteArray) -> Unit)
+
+    fun setAnalysisSize(size: CameraSize, format: FrameFormat)
 
 
 }
\ No newline at end of file
@@ -4,4 +4,6 @@ interface CameraApi : CameraActions, CameraEvents {
 
     val cameraHandler: CameraHandler
 
-}
\ No newline at end of file
+    val metrics: CameraMetrics
+
+}
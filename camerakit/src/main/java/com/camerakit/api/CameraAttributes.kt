@@ -6,10 +6,13 @@ import com.camerakit.type.CameraSize
 
 interface CameraAttributes {
 
+    val id: String
     val facing: CameraFacing
     val sensorOrientation: Int
     val previewSizes: Array<CameraSize>
     val photoSizes: Array<CameraSize>
+    /** JPEG stall duration in nanoseconds for each of [photoSizes], or 0 where unknown. */
+    val photoStallDurations: LongArray
     val flashes: Array<CameraFlash>
 
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.camerakit.api
 
+import com.camerakit.frame.FrameStream
+
 interface CameraEvents {
 
     fun onCameraOpened(cameraAttributes: CameraAttributes)
@@ -13,8 +15,17 @@ interface CameraEvents {
     //+lijiwei add
     fun startCamera2PreView(callBack: FrameCallBack)
 
+    fun startCamera2PreView(frameStream: FrameStream)
+
+    /** Stops both the [FrameCallBack] and the [FrameStream] frames. */
     fun stopCamera2PreView()
 
+    /** Stops the frames of [callBack] if it is the current one; a [FrameStream] keeps its frames. */
+    fun stopCamera2PreView(callBack: FrameCallBack)
+
+    /** Stops the frames of [frameStream] if it is the current one; a [FrameCallBack] keeps its frames. */
+    fun stopCamera2PreView(frameStream: FrameStream)
+
     fun tapFocus(x: Int, y: Int)
 
     fun onTapFocusFinish()
@@ -7,8 +7,8 @@ import android.util.Log
 class CameraHandler private constructor(private val thread: HandlerThread) : Handler(thread.looper) {
 
     companion object {
-        fun get(): CameraHandler {
-            val cameraThread = HandlerThread("CameraHandler@${System.currentTimeMillis()}")
+        fun get(name: String = "CameraHandler"): CameraHandler {
+            val cameraThread = HandlerThread("$name@${System.currentTimeMillis()}")
             cameraThread.start()
             return CameraHandler(cameraThread)
         }
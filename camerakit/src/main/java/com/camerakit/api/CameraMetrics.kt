@@ -0,0 +1,123 @@
+package com.camerakit.api
+
+import com.camerakit.type.PhotoRotation
+import com.camerakit.util.LatencyStats
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Latency counters kept by a [CameraApi] implementation, for profiling on device.
+ */
+class CameraMetrics {
+
+    /** From `open` to the camera device being opened, including camera ID and characteristics lookups. */
+    val openLatency: LatencyStats = LatencyStats()
+
+    /** From `start` to the camera reporting itself open. */
+    val startToOpen: LatencyStats = LatencyStats()
+
+    /** From `start` to the preview surface texture existing; 0 when it outlived the last stop. */
+    val startToSurface: LatencyStats = LatencyStats()
+
+    /** From `start` to the first completed preview frame. */
+    val timeToFirstFrame: LatencyStats = LatencyStats()
+
+    /** Lifecycle transition from `open` to the device reporting itself open. */
+    val openTransition: LatencyStats = LatencyStats()
+
+    /** Lifecycle transition from `startPreview` to the first completed preview frame. */
+    val startPreviewTransition: LatencyStats = LatencyStats()
+
+    /** Lifecycle transition spent in `stopPreview`. */
+    val stopPreviewTransition: LatencyStats = LatencyStats()
+
+    /** Lifecycle transition spent in `release`. */
+    val closeTransition: LatencyStats = LatencyStats()
+
+    /** Lifecycle transitions that failed or timed out. */
+    var transitionFailures: Long = 0
+        private set
+        @Synchronized get
+
+    /**
+     * Sensor time from the last preview frame before an output toggle to the first frame of the
+     * new repeating request; about one frame interval when the toggle causes no hiccup.
+     */
+    val repeatingSwapGap: LatencyStats = LatencyStats()
+
+    /** Time spent in the repeating preview request's capture callbacks, per callback. */
+    val previewCallbackCost: LatencyStats = LatencyStats()
+
+    /** From `capturePhoto` to upright JPEG bytes, with [PhotoRotation.PIXELS]. */
+    val shutterToBytesPixels: LatencyStats = LatencyStats()
+
+    /** From `capturePhoto` to JPEG bytes, with [PhotoRotation.METADATA]. */
+    val shutterToBytesMetadata: LatencyStats = LatencyStats()
+
+    /** Photos copied off the camera's reader because it was about to run out of images. */
+    var photoCopies: Long = 0
+        private set
+        @Synchronized get
+
+    /** Per-stage latency of finished photo captures. */
+    val captureTimeline: CaptureTimelineReport = CaptureTimelineReport()
+
+    /** Called with every finished [CaptureTimeline], on the thread that finished it. */
+    @Volatile
+    var captureTimelineListener: CaptureTimeline.Listener? = null
+
+    private val nextCaptureId = AtomicInteger()
+
+    fun newCaptureTimeline(): CaptureTimeline {
+        return CaptureTimeline(nextCaptureId.incrementAndGet()) { timeline ->
+            captureTimeline.record(timeline)
+            captureTimelineListener?.onCaptureTimeline(timeline)
+        }
+    }
+
+    @Synchronized
+    internal fun countTransitionFailure() {
+        transitionFailures++
+    }
+
+    @Synchronized
+    internal fun countPhotoCopy() {
+        photoCopies++
+    }
+
+    fun shutterToBytes(rotation: PhotoRotation): LatencyStats = when (rotation) {
+        PhotoRotation.PIXELS -> shutterToBytesPixels
+        PhotoRotation.METADATA -> shutterToBytesMetadata
+    }
+
+    fun reset() {
+        openLatency.reset()
+        startToOpen.reset()
+        startToSurface.reset()
+        timeToFirstFrame.reset()
+        openTransition.reset()
+        startPreviewTransition.reset()
+        stopPreviewTransition.reset()
+        closeTransition.reset()
+        synchronized(this) {
+            transitionFailures = 0
+            photoCopies = 0
+        }
+        repeatingSwapGap.reset()
+        previewCallbackCost.reset()
+        shutterToBytesPixels.reset()
+        shutterToBytesMetadata.reset()
+        captureTimeline.reset()
+    }
+
+    override fun toString(): String {
+        return "CameraMetrics(openLatency=[$openLatency], startToOpen=[$startToOpen], " +
+                "startToSurface=[$startToSurface], timeToFirstFrame=[$timeToFirstFrame], " +
+                "openTransition=[$openTransition], startPreviewTransition=[$startPreviewTransition], " +
+                "stopPreviewTransition=[$stopPreviewTransition], closeTransition=[$closeTransition], " +
+                "transitionFailures=$transitionFailures, repeatingSwapGap=[$repeatingSwapGap], " +
+                "previewCallbackCost=[$previewCallbackCost], " +
+                "shutterToBytesPixels=[$shutterToBytesPixels], " +
+                "shutterToBytesMetadata=[$shutterToBytesMetadata], photoCopies=$photoCopies)"
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.camerakit.api
+
+import android.os.Build
+import android.os.Trace
+
+/**
+ * Timestamps of one photo capture as it moves from the `capturePhoto` call to the app. Stages
+ * that a capture path skips, such as the request submission of a zero-shutter-lag shot, stay
+ * at -1. Each stage is also emitted as an `android.os.Trace` section: on API 29+ as an async
+ * section lasting until the next stage, below that as a marker on the thread that reached it.
+ */
+class CaptureTimeline internal constructor(val id: Int,
+                                           private val onFinish: (timeline: CaptureTimeline) -> Unit) {
+
+    enum class Stage(val traceName: String) {
+        CAPTURE_CALLED("CameraKit:capturePhoto"),
+        REQUEST_SUBMITTED("CameraKit:submitted"),
+        CAPTURE_STARTED("CameraKit:captureStarted"),
+        IMAGE_AVAILABLE("CameraKit:imageAvailable"),
+        BYTES_COPIED("CameraKit:bytesCopied"),
+        ROTATED("CameraKit:rotated"),
+        UI_POSTED("CameraKit:uiPosted");
+    }
+
+    interface Listener {
+        fun onCaptureTimeline(timeline: CaptureTimeline)
+    }
+
+    private val times = LongArray(Stage.values().size) { -1L }
+    private var lastStage: Stage? = null
+    private var finished = false
+
+    /** Records [stage] at the current `System.nanoTime()`. Later marks of the same stage are ignored. */
+    @Synchronized
+    fun mark(stage: Stage) {
+        if (finished || times[stage.ordinal] != -1L) {
+            return
+        }
+        times[stage.ordinal] = System.nanoTime()
+        if (Build.VERSION.SDK_INT >= 29) {
+            lastStage?.let { Trace.endAsyncSection(it.traceName, id) }
+            Trace.beginAsyncSection(stage.traceName, id)
+        } else {
+            Trace.beginSection(stage.traceName)
+            Trace.endSection()
+        }
+        lastStage = stage
+    }
+
+    /** `System.nanoTime()` at which [stage] was reached, or -1. */
+    @Synchronized
+    fun timeOf(stage: Stage): Long = times[stage.ordinal]
+
+    /** Nanoseconds from the `capturePhoto` call to [stage], or -1 if either was not reached. */
+    @Synchronized
+    fun elapsedNanos(stage: Stage): Long {
+        val start = times[Stage.CAPTURE_CALLED.ordinal]
+        val time = times[stage.ordinal]
+        return if (start == -1L || time == -1L) -1L else time - start
+    }
+
+    /** Closes the timeline and reports it. Only the first call has an effect. */
+    fun finish() {
+        synchronized(this) {
+            if (finished) {
+                return
+            }
+            finished = true
+            if (Build.VERSION.SDK_INT >= 29) {
+                lastStage?.let { Trace.endAsyncSection(it.traceName, id) }
+            }
+        }
+        onFinish(this)
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        val builder = StringBuilder("CaptureTimeline(id=").append(id)
+        for (stage in Stage.values()) {
+            val elapsed = elapsedNanos(stage)
+            if (elapsed >= 0) {
+                builder.append(", ").append(stage.name).append('=')
+                        .append(String.format(java.util.Locale.US, "%.1fms", elapsed / 1e6))
+            }
+        }
+        return builder.append(')').toString()
+    }
+
+}
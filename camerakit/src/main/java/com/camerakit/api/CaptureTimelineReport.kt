@@ -0,0 +1,41 @@
+package com.camerakit.api
+
+import com.camerakit.util.LatencyStats
+
+/**
+ * Aggregates finished [CaptureTimeline]s: for every stage, the latency from the `capturePhoto`
+ * call, with percentiles over the most recent captures.
+ */
+class CaptureTimelineReport {
+
+    private val stages = Array(CaptureTimeline.Stage.values().size) { LatencyStats() }
+
+    fun stage(stage: CaptureTimeline.Stage): LatencyStats = stages[stage.ordinal]
+
+    fun record(timeline: CaptureTimeline) {
+        for (stage in CaptureTimeline.Stage.values()) {
+            val elapsed = timeline.elapsedNanos(stage)
+            if (elapsed >= 0) {
+                stages[stage.ordinal].record(elapsed)
+            }
+        }
+    }
+
+    fun reset() {
+        for (stats in stages) {
+            stats.reset()
+        }
+    }
+
+    override fun toString(): String {
+        val builder = StringBuilder("CaptureTimelineReport")
+        for (stage in CaptureTimeline.Stage.values()) {
+            val stats = stages[stage.ordinal]
+            if (stats.count > 0) {
+                builder.append("\n  ").append(stage.name).append(": ").append(stats)
+            }
+        }
+        return builder.toString()
+    }
+
+}
@@ -5,5 +5,10 @@ package com.camerakit.api;
  */
 
 public interface FrameCallBack {
+
+    /**
+     * Called on the frame thread with an analysis frame as NV21. The array is reused for the next
+     * frame, so copy whatever has to outlive the call.
+     */
     void onFrame(byte[] data);
 }
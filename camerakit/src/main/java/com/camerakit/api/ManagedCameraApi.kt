@@ -1,15 +1,17 @@
 package com.camerakit.api
 
+import android.graphics.Bitmap
 import android.graphics.SurfaceTexture
 import com.camerakit.type.CameraFacing
 import com.camerakit.type.CameraFlash
 import com.camerakit.type.CameraSize
+import com.camerakit.type.FrameFormat
 
 class ManagedCameraApi(private val delegate: CameraApi) : CameraApi by delegate {
 
     @Synchronized
-    override fun open(facing: CameraFacing) {
-        cameraHandler.run { delegate.open(facing) }
+    override fun open(facing: CameraFacing, cameraId: String?) {
+        cameraHandler.run { delegate.open(facing, cameraId) }
     }
 
     @Synchronized
@@ -51,8 +53,45 @@ class ManagedCameraApi(private val delegate: CameraApi) : CameraApi by delegate
     }
 
     @Synchronized
-    override fun capturePhoto(callback: (jpeg: ByteArray) -> Unit) {
-        cameraHandler.run { delegate.capturePhoto(callback) }
+    override fun requestThumbnail(callback: (thumbnail: Bitmap) -> Unit) {
+        cameraHandler.run { delegate.requestThumbnail(callback) }
+    }
+
+    @Synchronized
+    override fun capturePhotoBuffer(timeline: CaptureTimeline?, onError: (e: Exception) -> Unit,
+                                    callback: (photo: PhotoBuffer) -> Unit) {
+        cameraHandler.run { delegate.capturePhotoBuffer(timeline, onError, callback) }
+    }
+
+    @Synchronized
+    override fun setPhotoOrientation(degrees: Int) {
+        cameraHandler.run { delegate.setPhotoOrientation(degrees) }
+    }
+
+    @Synchronized
+    override fun capturePhoto(timeline: CaptureTimeline?, onError: (e: Exception) -> Unit,
+                              callback: (jpeg: ByteArray) -> Unit) {
+        cameraHandler.run { delegate.capturePhoto(timeline, onError, callback) }
+    }
+
+    @Synchronized
+    override fun setZslBudget(bytes: Long) {
+        cameraHandler.run { delegate.setZslBudget(bytes) }
+    }
+
+    @Synchronized
+    override fun setBurstCapacity(count: Int) {
+        cameraHandler.run { delegate.setBurstCapacity(count) }
+    }
+
+    @Synchronized
+    override fun captureBurst(count: Int, callback: (index: Int, timestamp: Long, jpeg: ByteArray) -> Unit) {
+        cameraHandler.run { delegate.captureBurst(count, callback) }
+    }
+
+    @Synchronized
+    override fun setAnalysisSize(size: CameraSize, format: FrameFormat) {
+        cameraHandler.run { delegate.setAnalysisSize(size, format) }
     }
 
 }
\ No newline at end of file
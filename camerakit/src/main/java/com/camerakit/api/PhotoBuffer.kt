@@ -0,0 +1,39 @@
+package com.camerakit.api
+
+import java.io.Closeable
+import java.nio.ByteBuffer
+
+/**
+ * Encoded JPEG bytes as delivered by the camera. [buffer] may be the camera's own image memory
+ * and is only valid until [close], which must be called exactly once.
+ */
+interface PhotoBuffer : Closeable {
+
+    val buffer: ByteBuffer
+
+    /** Sensor timestamp of the exposure in nanoseconds. */
+    val timestamp: Long
+
+    /** Copies the JPEG into a new array without moving [buffer]'s position. */
+    fun toByteArray(): ByteArray {
+        val source = buffer.duplicate()
+        val bytes = ByteArray(source.remaining())
+        source.get(bytes)
+        return bytes
+    }
+
+    companion object {
+
+        fun wrap(jpeg: ByteArray, timestamp: Long): PhotoBuffer {
+            return object : PhotoBuffer {
+                override val buffer: ByteBuffer = ByteBuffer.wrap(jpeg)
+                override val timestamp: Long = timestamp
+                override fun toByteArray(): ByteArray = jpeg
+                override fun close() {
+                }
+            }
+        }
+
+    }
+
+}
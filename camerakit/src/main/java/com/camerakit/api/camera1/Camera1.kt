@@ -1,29 +1,37 @@
 package com.camerakit.api.camera1
 
+import android.graphics.Bitmap
 import android.graphics.SurfaceTexture
 import android.hardware.Camera
 import com.camerakit.api.CameraApi
 import com.camerakit.api.CameraAttributes
 import com.camerakit.api.CameraEvents
 import com.camerakit.api.CameraHandler
+import com.camerakit.api.CameraMetrics
+import com.camerakit.api.CaptureTimeline
+import com.camerakit.api.PhotoBuffer
 import com.camerakit.api.camera1.ext.getFlashes
 import com.camerakit.api.camera1.ext.getPhotoSizes
 import com.camerakit.api.camera1.ext.getPreviewSizes
 import com.camerakit.type.CameraFacing
 import com.camerakit.type.CameraFlash
 import com.camerakit.type.CameraSize
+import com.camerakit.type.FrameFormat
 
 class Camera1(eventsDelegate: CameraEvents) :
         CameraApi, CameraEvents by eventsDelegate {
 
     override val cameraHandler: CameraHandler = CameraHandler.get()
 
+    override val metrics: CameraMetrics = CameraMetrics()
+
     private var camera: Camera? = null
     private var cameraAttributes: CameraAttributes? = null
 
     @Synchronized
-    override fun open(facing: CameraFacing) {
-        val cameraId = when (facing) {
+    override fun open(facing: CameraFacing, cameraId: String?) {
+        // Camera.open needs the parameters read right after anyway, so a remembered ID saves nothing
+        val cameraFacing = when (facing) {
             CameraFacing.BACK -> Camera.CameraInfo.CAMERA_FACING_BACK
             CameraFacing.FRONT -> Camera.CameraInfo.CAMERA_FACING_FRONT
         }
@@ -32,10 +40,10 @@ class Camera1(eventsDelegate: CameraEvents) :
         val cameraInfo = Camera.CameraInfo()
         for (i in 0 until numberOfCameras) {
             Camera.getCameraInfo(i, cameraInfo)
-            if (cameraInfo.facing == cameraId) {
+            if (cameraInfo.facing == cameraFacing) {
                 val camera = Camera.open(i)
                 val cameraParameters = camera.parameters
-                val cameraAttributes = Attributes(cameraInfo, cameraParameters, facing)
+                val cameraAttributes = Attributes(i.toString(), cameraInfo, cameraParameters, facing)
 
                 this.camera = camera
                 this.cameraAttributes = cameraAttributes
@@ -136,21 +144,93 @@ class Camera1(eventsDelegate: CameraEvents) :
         }
     }
 
+    override fun requestThumbnail(callback: (thumbnail: Bitmap) -> Unit) {
+        // Camera1 has no second output to take a thumbnail from
+    }
+
+    @Synchronized
+    override fun capturePhotoBuffer(timeline: CaptureTimeline?, onError: (e: Exception) -> Unit,
+                                    callback: (photo: PhotoBuffer) -> Unit) {
+        capturePhoto(timeline, onError) { jpeg -> callback(PhotoBuffer.wrap(jpeg, System.nanoTime())) }
+    }
+
     @Synchronized
-    override fun capturePhoto(callback: (jpeg: ByteArray) -> Unit) {
+    override fun setPhotoOrientation(degrees: Int) {
         val camera = camera
         if (camera != null) {
+            val parameters = camera.parameters
+            parameters.setRotation(degrees)
+
+            try {
+                camera.parameters = parameters
+            } catch (e: Exception) {
+                // ignore failures for minor parameters like this for now
+            }
+        }
+    }
+
+    @Synchronized
+    override fun capturePhoto(timeline: CaptureTimeline?, onError: (e: Exception) -> Unit,
+                              callback: (jpeg: ByteArray) -> Unit) {
+        val camera = camera
+        if (camera == null) {
+            onError(IllegalStateException("camera is not open"))
+            return
+        }
+        timeline?.mark(CaptureTimeline.Stage.REQUEST_SUBMITTED)
+        try {
             camera.takePicture(null, null) { data, _ ->
+                // Camera1 hands over a copied array, so the image and its bytes arrive together
+                timeline?.mark(CaptureTimeline.Stage.IMAGE_AVAILABLE)
+                timeline?.mark(CaptureTimeline.Stage.BYTES_COPIED)
                 callback(data)
                 camera.startPreview()
             }
+        } catch (e: Exception) {
+            onError(e)
         }
     }
 
-    private class Attributes(cameraInfo: Camera.CameraInfo,
+    @Synchronized
+    override fun setZslBudget(bytes: Long) {
+        // zero-shutter-lag capture is only available through Camera2
+    }
+
+    @Synchronized
+    override fun setBurstCapacity(count: Int) {
+        // Camera1 takes burst shots one after another, there is no image queue to size
+    }
+
+    @Synchronized
+    override fun captureBurst(count: Int, callback: (index: Int, timestamp: Long, jpeg: ByteArray) -> Unit) {
+        val camera = camera ?: return
+        captureBurstShot(camera, 0, count, callback)
+    }
+
+    private fun captureBurstShot(camera: Camera, index: Int, count: Int,
+                                 callback: (index: Int, timestamp: Long, jpeg: ByteArray) -> Unit) {
+        if (index >= count) {
+            return
+        }
+        camera.takePicture(null, null) { data, _ ->
+            callback(index, System.nanoTime(), data)
+            camera.startPreview()
+            captureBurstShot(camera, index + 1, count, callback)
+        }
+    }
+
+    @Synchronized
+    override fun setAnalysisSize(size: CameraSize, format: FrameFormat) {
+        // frame analysis is only available through Camera2
+    }
+
+    private class Attributes(cameraId: String,
+                             cameraInfo: Camera.CameraInfo,
                              cameraParameters: Camera.Parameters,
                              cameraFacing: CameraFacing) : CameraAttributes {
 
+        override val id: String = cameraId
+
         override val facing: CameraFacing = cameraFacing
 
         override val sensorOrientation: Int = cameraInfo.orientation
@@ -159,6 +239,9 @@ class Camera1(eventsDelegate: CameraEvents) :
 
         override val photoSizes: Array<CameraSize> = cameraParameters.getPhotoSizes()
 
+        // Camera1 does not report stall durations
+        override val photoStallDurations: LongArray = LongArray(photoSizes.size)
+
         override val flashes: Array<CameraFlash> = cameraParameters.getFlashes()
     }
 
@@ -2,47 +2,118 @@ package com.camerakit.api.camera2
 
 import android.content.Context
 import android.content.Context.CAMERA_SERVICE
+import android.graphics.Bitmap
 import android.graphics.ImageFormat
 import android.graphics.Rect
 import android.graphics.SurfaceTexture
+import android.graphics.YuvImage
 import android.hardware.camera2.*
 import android.hardware.camera2.params.MeteringRectangle
 import android.media.Image
 import android.media.ImageReader
 import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
 import androidx.annotation.RequiresApi
 import android.view.Surface
 import com.camerakit.api.*
 import com.camerakit.api.camera2.ext.*
+import com.camerakit.frame.FrameCopyMode
+import com.camerakit.frame.FrameStream
 import com.camerakit.type.CameraFacing
 import com.camerakit.type.CameraFlash
 import com.camerakit.type.CameraSize
+import com.camerakit.type.FrameFormat
+import com.camerakit.util.JpegOrientation
+import com.camerakit.util.PostProcessor
+import com.camerakit.util.YuvConverter
+import java.io.ByteArrayOutputStream
 import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.logging.Handler
 
 
 @RequiresApi(21)
 @SuppressWarnings("MissingPermission")
-class Camera2(eventsDelegate: CameraEvents, context: Context) :
+class Camera2(eventsDelegate: CameraEvents, context: Context, private val postProcessor: PostProcessor) :
         CameraApi, CameraEvents by eventsDelegate {
 
     override val cameraHandler: CameraHandler = CameraHandler.get()
 
+    override val metrics: CameraMetrics = CameraMetrics()
+
+    // analysis images are acquired and copied here so neither the caller's Looper nor the
+    // camera session callbacks compete with frame throughput
+    private val frameHandler: CameraHandler = CameraHandler.get("FrameHandler")
+
     private val cameraManager: CameraManager =
             context.getSystemService(CAMERA_SERVICE) as CameraManager
 
+    private val characteristicsCache = CameraCharacteristicsCache.get(context)
+
     private var cameraDevice: CameraDevice? = null
+    // bumped by every open and release, so callbacks of an open that was given up on are ignored
+    private var openGeneration = 0
     private var cameraAttributes: CameraAttributes? = null
 
     private var captureSession: CameraCaptureSession? = null
     private var previewRequestBuilder: CaptureRequest.Builder? = null
 
-    private var imageReader: ImageReader? = null
-    private var photoCallback: ((jpeg: ByteArray) -> Unit)? = null
+    // the analysis output joins the session in startPreview; a frame consumer only decides
+    // whether the repeating request targets it, so attaching one never rebuilds the session
+    private val analysisStreaming: Boolean
+        get() = frameStream != null || frameCallBack != null
+    // first request after a toggle, and the sensor time of the last preview frame, to measure the gap
+    @Volatile
+    private var swappedRequest: CaptureRequest? = null
+    @Volatile
+    private var lastPreviewTimestamp = 0L
+    // callback of the current repeating request when it is not captureCallback, e.g. while a
+    // tap focus is settling; re-issuing the request must not take it away
+    @Volatile
+    private var repeatingCallback: CameraCaptureSession.CaptureCallback? = null
+
+    private var photoReader: ImageReaderRef? = null
+    private var analysisReaderRef: ImageReaderRef? = null
+    private val imageReader: ImageReader?
+        get() = photoReader?.reader
+    private val analysisReader: ImageReader?
+        get() = analysisReaderRef?.reader
+    private val analysisImage = ImageAdapter()
+    private var analysisFormat: FrameFormat = FrameFormat.YUV_420_888
+    @Volatile
+    private var frameStream: FrameStream? = null
+    @Volatile
+    private var frameCallBack: FrameCallBack? = null
+    // only touched on the frame thread
+    private var legacyFrameBuffer: ByteBuffer? = null
+    private var legacyFrameBytes: ByteArray? = null
+    @Volatile
+    private var thumbnailCallback: ((thumbnail: Bitmap) -> Unit)? = null
+    private var photoCallback: ((photo: PhotoBuffer) -> Unit)? = null
+    private var photoOnError: ((e: Exception) -> Unit)? = null
+    private var photoTimeline: CaptureTimeline? = null
+    private val stillCaptures = StillCaptureQueue(metrics)
 
     private var flash: CameraFlash = CameraFlash.OFF
+    private var photoOrientation: Int = 0
+    private var burstCapacity: Int = 2
+    private var photoSize: CameraSize? = null
+
+    // zero-shutter-lag: the repeating request also fills a ring of full-resolution YUV images
+    private var zslBudget: Long = 0L
+    private var zslReader: ImageReader? = null
+    private var zslRing: ZslRing<Image, TotalCaptureResult>? = null
+    private var zslRealtimeTimestamps = false
+    // ring images taken by a press and not yet closed
+    private val zslInFlight = AtomicInteger()
+    // below LEVEL_3 a ZSL session leaves the analysis output out; starting analysis rebuilds it
+    @Volatile
+    private var analysisInSession = false
+    private var previewSurface: Surface? = null
     private var previewStarted = false
+    @Volatile
     private var openPreview = false  //预览关闭后不处理onCaptureCompleted回调
     private var cameraFacing: CameraFacing = CameraFacing.BACK
     private var waitingFrames: Int = 0
@@ -51,32 +122,91 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
 
     private var previewSize: CameraSize? = null
 
+    init {
+        // the camera service lookups need no permission, so they run while the host checks
+        // permissions and the preview's GL surface is created, and open() goes straight to the
+        // device. They get a thread of their own: on the camera handler they would hold up
+        // onOpened and the session callbacks queued behind them.
+        Thread({
+            try {
+                characteristicsCache.prefetch { cameraId, characteristics ->
+                    characteristicsCache.facing(cameraId)?.let { Attributes(cameraId, characteristics, it) }
+                }
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }, "CameraPrefetch").start()
+    }
+
     @Synchronized
-    override fun open(facing: CameraFacing) {
+    override fun open(facing: CameraFacing, cameraId: String?) {
+        val openTime = System.nanoTime()
         cameraFacing = facing
-        val cameraId = cameraManager.getCameraId(facing) ?: throw RuntimeException()
-        val cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraId)
-        this.cameraCharacteristics = cameraCharacteristics
+        openGeneration++
+        if (cameraId != null) {
+            try {
+                openCamera(cameraId, facing, openTime, true)
+                // a remembered ID skips the facing lookup; the characteristics load while the
+                // device opens and are checked in onOpened
+                characteristicsCache.characteristics(cameraId)
+                return
+            } catch (e: Exception) {
+                Log.d("Camera2", "remembered camera $cameraId did not open: " + e.message)
+            }
+        }
+        openCamera(characteristicsCache.cameraId(facing) ?: throw RuntimeException(), facing, openTime, false)
+    }
+
+    private fun openCamera(cameraId: String, facing: CameraFacing, openTime: Long, remembered: Boolean) {
+        val generation = openGeneration
         //cameraManager.whenDeviceAvailable(cameraId, cameraHandler) {
         cameraManager.openCamera(cameraId, object : CameraDevice.StateCallback() {
             override fun onOpened(cameraDevice: CameraDevice) {
-                val cameraAttributes = Attributes(cameraCharacteristics, facing)
-                this@Camera2.cameraDevice = cameraDevice
-                this@Camera2.cameraAttributes = cameraAttributes
-                onCameraOpened(cameraAttributes)
+                synchronized(this@Camera2) {
+                    if (generation != openGeneration) {
+                        // released or reopened while this open was pending, e.g. after a lifecycle timeout
+                        Log.d("Camera2", "closing camera $cameraId from an abandoned open")
+                        cameraDevice.close()
+                        return
+                    }
+                    if (remembered && characteristicsCache.facing(cameraId) != facing) {
+                        Log.d("Camera2", "remembered camera $cameraId no longer faces $facing")
+                        cameraDevice.close()
+                        open(facing, null)
+                        return
+                    }
+                    metrics.openLatency.record(System.nanoTime() - openTime)
+                    val cameraAttributes = characteristicsCache.attributes(cameraId) {
+                        Attributes(cameraId, it, facing)
+                    }
+                    this@Camera2.cameraDevice = cameraDevice
+                    this@Camera2.cameraCharacteristics = characteristicsCache.characteristics(cameraId)
+                    this@Camera2.cameraAttributes = cameraAttributes
+                    onCameraOpened(cameraAttributes)
+                }
             }
 
             override fun onDisconnected(cameraDevice: CameraDevice) {
-                cameraDevice.close()
-                this@Camera2.cameraDevice = null
-                this@Camera2.captureSession = null
-                onCameraClosed()
+                synchronized(this@Camera2) {
+                    cameraDevice.close()
+                    if (generation != openGeneration) {
+                        return
+                    }
+                    this@Camera2.cameraDevice = null
+                    this@Camera2.captureSession = null
+                    onCameraClosed()
+                }
             }
 
             override fun onError(cameraDevice: CameraDevice, error: Int) {
-                cameraDevice.close()
-                this@Camera2.cameraDevice = null
-                this@Camera2.captureSession = null
+                synchronized(this@Camera2) {
+                    cameraDevice.close()
+                    if (generation != openGeneration) {
+                        return
+                    }
+                    this@Camera2.cameraDevice = null
+                    this@Camera2.captureSession = null
+                }
             }
         }, cameraHandler)
         //}
@@ -84,18 +214,29 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
 
     @Synchronized
     override fun release() {
+        // an open still pending closes its device when it completes
+        openGeneration++
         cameraDevice?.close()
         cameraDevice = null
         captureSession?.close()
         captureSession = null
+        analysisInSession = false
+        previewSurface = null
         cameraAttributes = null
-        imageReader?.close()
-        imageReader = null
+        stillCaptures.clear()
+        releaseZsl()
+        stillCaptures.reader = null
+        photoReader?.retire()
+        photoReader = null
+        analysisReaderRef?.retire()
+        analysisReaderRef = null
         previewStarted = false
+        lastPreviewTimestamp = 0L
         onCameraClosed()
     }
 
     override fun destroy() {
+        frameHandler.quit()
         cameraHandler.quit()
     }
 
@@ -113,24 +254,50 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
     override fun startPreview(surfaceTexture: SurfaceTexture) {
         openPreview = true
         val cameraDevice = cameraDevice
-        val imageReader = imageReader
         if (cameraDevice != null && imageReader != null) {
-            val surface = Surface(surfaceTexture)
-            cameraDevice.getCaptureSession(surface, imageReader, cameraHandler) { captureSession ->
-                try {
-                    if (captureSession != null) {
-                        this.captureSession = captureSession
-                        val previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW)
-                        previewRequestBuilder.addTarget(surface)
-                        previewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
-                        previewRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO)
-
-                        captureSession.setRepeatingRequest(previewRequestBuilder.build(), captureCallback, cameraHandler)
-                        this.previewRequestBuilder = previewRequestBuilder
+            createSession(cameraDevice, Surface(surfaceTexture), createZslReader())
+        }
+    }
+
+    /**
+     * Configures the session for [surface] plus the still, analysis and [zslReader] outputs.
+     * Stream combinations with a ZSL output are not guaranteed, so if that one fails the
+     * session is configured again without it. A fourth stream is only guaranteed at LEVEL_3,
+     * so below it a ZSL session leaves the analysis output out.
+     */
+    private fun createSession(cameraDevice: CameraDevice, surface: Surface, zslReader: ImageReader?) {
+        val imageReader = imageReader ?: return
+        previewSurface = surface
+        val withAnalysis = zslReader == null ||
+                cameraCharacteristics?.isHardwareLevelAtLeast(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3) == true
+        val analysisReader = analysisReader?.takeIf { withAnalysis }
+        val surfaces = mutableListOf(surface, imageReader.surface)
+        analysisReader?.let { surfaces.add(it.surface) }
+        zslReader?.let { surfaces.add(it.surface) }
+        val onConfigureFailed = zslReader?.let { zsl -> { retryWithoutZsl(cameraDevice, surface, zsl) } }
+        cameraDevice.getCaptureSession(surfaces, cameraHandler, onConfigureFailed) { captureSession ->
+            try {
+                if (captureSession != null && !openPreview) {
+                    // the preview was stopped while the session was being configured
+                    captureSession.close()
+                } else if (captureSession != null) {
+                    this.captureSession = captureSession
+                    analysisInSession = analysisReader != null
+                    val previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW)
+                    previewRequestBuilder.addTarget(surface)
+                    zslReader?.let { previewRequestBuilder.addTarget(it.surface) }
+                    if (analysisStreaming) {
+                        analysisReader?.let { previewRequestBuilder.addTarget(it.surface) }
                     }
-                } catch (e: Exception) {
-                    e.printStackTrace()
+                    previewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
+                    previewRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO)
+
+                    repeatingCallback = null
+                    captureSession.setRepeatingRequest(previewRequestBuilder.build(), captureCallback, cameraHandler)
+                    this.previewRequestBuilder = previewRequestBuilder
                 }
+            } catch (e: Exception) {
+                e.printStackTrace()
             }
         }
     }
@@ -140,6 +307,7 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
         openPreview = false
         val captureSession = captureSession
         this.captureSession = null
+        analysisInSession = false
         if (captureSession != null) {
             try {
                 captureSession.stopRepeating()
@@ -162,67 +330,470 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
     @Synchronized
     override fun setPhotoSize(size: CameraSize) {
         Log.d("Camera2", "size=" + size.width + "*" + size.height)
-        this.imageReader = ImageReader.newInstance(size.width, size.height, ImageFormat.JPEG, 2)
+        photoSize = size
+        val current = imageReader
+        if (current != null && current.width == size.width && current.height == size.height &&
+                current.maxImages == burstCapacity) {
+            return
+        }
+        // the old reader closes once the photos still being processed from it are released
+        photoReader?.retire()
+        val imageReader = ImageReader.newInstance(size.width, size.height, ImageFormat.JPEG, burstCapacity)
+        imageReader.setOnImageAvailableListener(photoListener, cameraHandler)
+        val photoReader = ImageReaderRef(imageReader)
+        stillCaptures.reader = photoReader
+        this.photoReader = photoReader
     }
 
     @Synchronized
-    override fun capturePhoto(callback: (jpeg: ByteArray) -> Unit) {
-        this.photoCallback = callback
+    override fun setPhotoOrientation(degrees: Int) {
+        photoOrientation = degrees
+    }
 
-        if (cameraFacing == CameraFacing.BACK) {
-            //lockFocus()
-            captureStillPicture()
-        } else {
-            captureStillPicture()
-        }
+    /** Sizes the photo reader queue for bursts of up to [count] shots; applies from [setPhotoSize]. */
+    @Synchronized
+    override fun setBurstCapacity(count: Int) {
+        burstCapacity = Math.max(2, count)
     }
 
-    //+lijiwei.youdao add
-    override fun startCamera2PreView(callBack: FrameCallBack) {
-        val previewRequestBuilder = previewRequestBuilder
+    @Synchronized
+    override fun captureBurst(count: Int, callback: (index: Int, timestamp: Long, jpeg: ByteArray) -> Unit) {
         val captureSession = captureSession
-        captureSession!!.stopRepeating()
-        if (previewRequestBuilder != null && captureSession != null) {
+        val cameraDevice = cameraDevice
+        val imageReader = imageReader
+        if (captureSession != null && cameraDevice != null && imageReader != null && count > 0) {
+            val captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE)
+            captureBuilder.addTarget(imageReader.surface)
+            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
+            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, photoOrientation)
+            // a firing flash cannot keep up with a burst
+            captureBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF)
+
+            val requests = ArrayList<CaptureRequest>(count)
+            for (index in 0 until count) {
+                captureBuilder.setTag(stillCaptures.submit { photo ->
+                    val jpeg = photo.use { it.toByteArray() }
+                    callback(index, photo.timestamp, jpeg)
+                })
+                requests.add(captureBuilder.build())
+            }
+
             try {
-                previewRequestBuilder?.addTarget(imageReader!!.surface)
-                captureSession.setRepeatingRequest(previewRequestBuilder.build(), null, cameraHandler)
-                this.previewRequestBuilder = previewRequestBuilder
+                captureSession.captureBurst(requests, stillCaptureCallback, cameraHandler)
             } catch (e: Exception) {
                 e.printStackTrace()
+                for (request in requests) {
+                    (request.tag as? StillCaptureQueue.Pending)?.let { stillCaptures.onFailed(it, e) }
+                }
             }
         }
-        imageReader?.setOnImageAvailableListener(object : ImageReader.OnImageAvailableListener {
-            override fun onImageAvailable(reader: ImageReader?) {
-                if (reader != null) {
-                    try {
-                        val image: Image = reader.acquireLatestImage()
-                        val buffer: ByteBuffer = image.planes[0].buffer
-                        val bytes = ByteArray(buffer.remaining())
-                        buffer.get(bytes)
-                        callBack.onFrame(bytes)
+    }
+
+    @Synchronized
+    override fun setAnalysisSize(size: CameraSize, format: FrameFormat) {
+        Log.d("Camera2", "analysisSize=" + size.width + "*" + size.height + " format=" + format)
+        analysisFormat = format
+        val current = analysisReader
+        if (current != null && current.width == size.width && current.height == size.height) {
+            return
+        }
+        // zero-copy frames still held by the consumer keep the old reader open
+        analysisReaderRef?.retire()
+        val analysisReader = ImageReader.newInstance(size.width, size.height, ImageFormat.YUV_420_888, 3)
+        analysisReader.setOnImageAvailableListener(analysisListener, frameHandler)
+        this.analysisReaderRef = ImageReaderRef(analysisReader)
+        // a stream started before there was a reader
+        frameStream?.let { configureFrameStream(it, analysisReader) }
+    }
+
+    /**
+     * Delivers a small, unrotated preview of the next photo. The still request also targets the
+     * analysis reader, so the thumbnail is the first analysis image after the shutter: the still
+     * request's own small frame, or the nearest preview frame while analysis is streaming.
+     */
+    @Synchronized
+    override fun requestThumbnail(callback: (thumbnail: Bitmap) -> Unit) {
+        thumbnailCallback = callback
+    }
+
+    private val analysisListener = ImageReader.OnImageAvailableListener { reader ->
+        try {
+            val image: Image? = reader.acquireNextImage()
+            if (image != null) {
+                if (thumbnailCallback != null) {
+                    deliverThumbnail(image)
+                }
+                frameCallBack?.let { deliverLegacyFrame(it, image) }
+                val frameStream = frameStream
+                if (frameStream == null) {
+                    image.close()
+                } else if (frameStream.copyMode == FrameCopyMode.ZERO_COPY) {
+                    // the frame owns the image from here on and closes it on its last release
+                    val readerRef = analysisReaderRef?.takeIf { it.reader === reader }
+                    readerRef?.retain()
+                    val closeable = AutoCloseable {
                         image.close()
-                    } catch (e: java.lang.Exception) {
-                        e.printStackTrace()
+                        readerRef?.release()
                     }
+                    if (!frameStream.offerZeroCopy(ImageAdapter().wrap(image), closeable)) {
+                        closeable.close()
+                    }
+                } else {
+                    // every image goes through the stream so drops are counted by its backpressure policy
+                    frameStream.offer(analysisImage.wrap(image))
+                    analysisImage.clear()
+                    image.close()
                 }
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /** Hands [callBack] the image as NV21, in an array that is reused for the next frame. */
+    private fun deliverLegacyFrame(callBack: FrameCallBack, image: Image) {
+        val size = YuvConverter.outputSize(YuvConverter.Output.NV21, image.width, image.height)
+        var buffer = legacyFrameBuffer
+        var bytes = legacyFrameBytes
+        if (buffer == null || bytes == null || bytes.size != size) {
+            buffer = ByteBuffer.allocateDirect(size)
+            bytes = ByteArray(size)
+            legacyFrameBuffer = buffer
+            legacyFrameBytes = bytes
+        }
+        val planes = image.planes
+        if (YuvConverter.convert(planes[0].buffer, planes[1].buffer, planes[2].buffer,
+                        planes[0].rowStride, planes[1].rowStride, planes[1].pixelStride,
+                        image.width, image.height, YuvConverter.Output.NV21, buffer)) {
+            buffer.get(bytes, 0, size)
+            buffer.rewind()
+            callBack.onFrame(bytes)
+        }
+    }
 
+    private fun deliverThumbnail(image: Image) {
+        val callback = synchronized(this) {
+            val callback = thumbnailCallback
+            thumbnailCallback = null
+            callback
+        } ?: return
+
+        val width = Math.min(THUMBNAIL_WIDTH, image.width) and 1.inv()
+        val height = (image.height.toLong() * width / image.width).toInt() and 1.inv()
+        val buffer = ByteBuffer.allocateDirect(YuvConverter.outputSize(YuvConverter.Output.RGBA, width, height))
+        val planes = image.planes
+        if (YuvConverter.convert(planes[0].buffer, planes[1].buffer, planes[2].buffer,
+                        planes[0].rowStride, planes[1].rowStride, planes[1].pixelStride,
+                        image.width, image.height, YuvConverter.Output.RGBA, buffer, width, height)) {
+            // ARGB_8888 bitmaps store their pixels as R, G, B, A bytes
+            val thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+            thumbnail.copyPixelsFromBuffer(buffer)
+            callback(thumbnail)
+        }
+    }
+
+    /** Bytes of full-resolution YUV kept for zero-shutter-lag capture; 0 disables it. Applies from [startPreview]. */
+    @Synchronized
+    override fun setZslBudget(bytes: Long) {
+        zslBudget = bytes
+    }
+
+    @Synchronized
+    override fun capturePhoto(timeline: CaptureTimeline?, onError: (e: Exception) -> Unit, callback: (jpeg: ByteArray) -> Unit) {
+        capturePhotoBuffer(timeline, onError) { photo ->
+            val jpeg = photo.use { it.toByteArray() }
+            timeline?.mark(CaptureTimeline.Stage.BYTES_COPIED)
+            callback(jpeg)
+        }
+    }
+
+    /** Like [capturePhoto], but hands over the reader's image without copying it. */
+    @Synchronized
+    override fun capturePhotoBuffer(timeline: CaptureTimeline?, onError: (e: Exception) -> Unit, callback: (photo: PhotoBuffer) -> Unit) {
+        val pressTime = when (zslRealtimeTimestamps) {
+            true -> SystemClock.elapsedRealtimeNanos()
+            false -> System.nanoTime()
+        }
+        // a firing flash has to be exposed for, so it always takes the regular path
+        if (flash != CameraFlash.ON && captureZslPicture(pressTime, timeline, onError, callback)) {
+            return
+        }
+        this.photoCallback = callback
+        this.photoOnError = onError
+        this.photoTimeline = timeline
+
+        if (cameraFacing == CameraFacing.BACK) {
+            //lockFocus()
+            captureStillPicture()
+        } else {
+            captureStillPicture()
+        }
+    }
+
+    @Synchronized
+    private fun retryWithoutZsl(cameraDevice: CameraDevice, surface: Surface, zslReader: ImageReader) {
+        Log.d("Camera2", "session with zsl output failed to configure, retrying without it")
+        if (zslReader === this.zslReader) {
+            releaseZsl()
+        }
+        if (openPreview && cameraDevice === this.cameraDevice) {
+            createSession(cameraDevice, surface, null)
+        }
+    }
+
+    private fun releaseZsl() {
+        zslRing?.clear()
+        zslRing = null
+        zslReader?.close()
+        zslReader = null
+    }
+
+    private fun createZslReader(): ImageReader? {
+        releaseZsl()
+
+        val cameraCharacteristics = cameraCharacteristics
+        val photoSize = photoSize
+        if (zslBudget <= 0L || cameraCharacteristics == null || photoSize == null) {
+            return null
+        }
+
+        // a full-size YUV stream next to preview and JPEG is only guaranteed from FULL, and a
+        // fourth stream for analysis only at LEVEL_3; while analysis is not streaming the session
+        // leaves its output out instead. A failed session is still retried without ZSL.
+        val requiredLevel = when (analysisStreaming) {
+            false -> CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+            true -> CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3
+        }
+        if (!cameraCharacteristics.isHardwareLevelAtLeast(requiredLevel)) {
+            Log.d("Camera2", "zsl disabled, hardware level below $requiredLevel")
+            return null
+        }
+
+        // the ring is fed by the repeating request, so its size must keep up with the preview;
+        // the photo size may be given in display orientation, YUV sizes are in sensor orientation
+        val yuvSizes = cameraCharacteristics.getYuvSizes()
+                .filter { cameraCharacteristics.getYuvMinFrameDuration(it) <= ZSL_MAX_FRAME_DURATION }
+        val size = yuvSizes.firstOrNull {
+            (it.width == photoSize.width && it.height == photoSize.height) ||
+                    (it.width == photoSize.height && it.height == photoSize.width)
+        } ?: yuvSizes.maxBy { it.width * it.height } ?: return null
+
+        val frameBytes = YuvConverter.outputSize(YuvConverter.Output.NV21, size.width, size.height)
+        val capacity = (zslBudget / frameBytes).toInt()
+        if (capacity < 1) {
+            Log.d("Camera2", "zsl budget $zslBudget too small for ${size.width}*${size.height}")
+            return null
+        }
+        Log.d("Camera2", "zslSize=" + size.width + "*" + size.height + " frames=" + capacity)
+
+        zslRealtimeTimestamps = cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE) ==
+                CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+        // ring images, the presses being encoded and one being acquired
+        val zslReader = ImageReader.newInstance(size.width, size.height, ImageFormat.YUV_420_888,
+                capacity + ZSL_MAX_IN_FLIGHT + 1)
+        val zslRing = ZslRing<Image, TotalCaptureResult>(capacity) { it.close() }
+        zslReader.setOnImageAvailableListener({ reader ->
+            try {
+                val image: Image? = reader.acquireNextImage()
+                if (image != null) {
+                    zslRing.put(image.timestamp, image)
+                }
+            } catch (e: Exception) {
+                e.printStackTrace()
             }
-        }, null)
+        }, cameraHandler)
+        this.zslReader = zslReader
+        this.zslRing = zslRing
+        return zslReader
     }
 
-    override fun stopCamera2PreView() {
-        imageReader?.setOnImageAvailableListener(null, null)
-        val previewRequestBuilder = previewRequestBuilder
-        val captureSession = captureSession
-        captureSession!!.stopRepeating()
-        if (previewRequestBuilder != null && captureSession != null) {
+    /**
+     * Encodes the ring frame closest to [pressTime]. Returns false if the press has to take the
+     * regular path instead; once it has returned true, a photo that cannot be encoded after all
+     * is reported to [onError].
+     */
+    private fun captureZslPicture(pressTime: Long, timeline: CaptureTimeline?, onError: (e: Exception) -> Unit,
+                                  callback: (photo: PhotoBuffer) -> Unit): Boolean {
+        val zslRing = zslRing ?: return false
+        // presses beyond the reader's reserved slots take the regular path instead of starving the ring
+        if (zslInFlight.incrementAndGet() > ZSL_MAX_IN_FLIGHT) {
+            zslInFlight.decrementAndGet()
+            return false
+        }
+        val entry = zslRing.take(pressTime)
+        if (entry == null) {
+            zslInFlight.decrementAndGet()
+            return false
+        }
+        val photoOrientation = photoOrientation
+        if (thumbnailCallback != null) {
+            // the ring frame is the photo itself, so it makes the closest possible thumbnail
+            deliverThumbnail(entry.image)
+        }
+        // set by whichever comes first: this method returning, or the encode being turned away
+        val decided = AtomicBoolean()
+        postProcessor.execute({ e ->
+            Log.d("Camera2", "zsl encode rejected: " + e.message)
+            entry.image.close()
+            zslInFlight.decrementAndGet()
+            if (!decided.compareAndSet(false, true)) {
+                // turned away after the press was accepted, by DROP_OLDEST or a shutdown
+                onError(e)
+            }
+        }) {
+            val image = entry.image
+            val jpeg: ByteArray
             try {
-                previewRequestBuilder?.removeTarget(imageReader!!.surface)
-                captureSession.setRepeatingRequest(previewRequestBuilder.build(), captureCallback, cameraHandler)
-                this.previewRequestBuilder = previewRequestBuilder
+                jpeg = encodeJpeg(image)
             } catch (e: Exception) {
                 e.printStackTrace()
+                onError(e)
+                return@execute
+            } finally {
+                image.close()
+                zslInFlight.decrementAndGet()
             }
+            // the encoded ring frame stands in for the reader image of a regular capture
+            timeline?.mark(CaptureTimeline.Stage.IMAGE_AVAILABLE)
+            // the camera tags regular captures with JPEG_ORIENTATION, do the same here
+            callback(PhotoBuffer.wrap(JpegOrientation.withOrientation(jpeg, photoOrientation), entry.timestamp))
+        }
+        // a press turned away right here still gets its photo from a regular capture
+        return decided.compareAndSet(false, true)
+    }
+
+    private class ZslScratch {
+        var buffer: ByteBuffer? = null
+        var bytes: ByteArray? = null
+    }
+
+    // conversion buffers are reused per post-processing thread
+    private val zslScratch = object : ThreadLocal<ZslScratch>() {
+        override fun initialValue(): ZslScratch = ZslScratch()
+    }
+
+    private fun encodeJpeg(image: Image): ByteArray {
+        val width = image.width
+        val height = image.height
+        val size = YuvConverter.outputSize(YuvConverter.Output.NV21, width, height)
+        val scratch = zslScratch.get()!!
+        var buffer = scratch.buffer
+        var bytes = scratch.bytes
+        if (buffer == null || bytes == null || buffer.capacity() != size) {
+            buffer = ByteBuffer.allocateDirect(size)
+            bytes = ByteArray(size)
+            scratch.buffer = buffer
+            scratch.bytes = bytes
+        }
+        buffer!!.clear()
+
+        val planes = image.planes
+        if (!YuvConverter.convert(planes[0].buffer, planes[1].buffer, planes[2].buffer,
+                        planes[0].rowStride, planes[1].rowStride, planes[1].pixelStride,
+                        width, height, YuvConverter.Output.NV21, buffer)) {
+            throw IllegalStateException("zsl image conversion failed")
+        }
+        buffer.get(bytes!!)
+
+        val output = ByteArrayOutputStream(size / 4)
+        YuvImage(bytes, ImageFormat.NV21, width, height, null)
+                .compressToJpeg(Rect(0, 0, width, height), ZSL_JPEG_QUALITY, output)
+        return output.toByteArray()
+    }
+
+    //+lijiwei.youdao add
+    override fun startCamera2PreView(callBack: FrameCallBack) {
+        // served from the analysis reader, so the photo reader is left to still captures
+        frameCallBack = callBack
+        if (analysisReader != null && !addAnalysisToSession()) {
+            updateRepeatingRequest()
+        }
+    }
+
+    override fun startCamera2PreView(frameStream: FrameStream) {
+        // without a reader yet the request is only recorded; setAnalysisSize applies it
+        val analysisReader = analysisReader
+        analysisReader?.let { configureFrameStream(frameStream, it) }
+        this.frameStream = frameStream
+        if (analysisReader != null && !addAnalysisToSession()) {
+            updateRepeatingRequest()
+        }
+    }
+
+    private fun configureFrameStream(frameStream: FrameStream, analysisReader: ImageReader) {
+        frameStream.format = analysisFormat
+        frameStream.metadata.clear()
+        frameStream.zeroCopyLimit = analysisReader.maxImages - 1
+        cameraCharacteristics?.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE)?.let {
+            frameStream.sensorAspectRatio = it.width().toFloat() / it.height()
+        }
+    }
+
+    /**
+     * Rebuilds a session configured without the analysis output, dropping ZSL to make room for
+     * it. Returns false if the current session needs no rebuild.
+     */
+    @Synchronized
+    private fun addAnalysisToSession(): Boolean {
+        val captureSession = captureSession ?: return false
+        val cameraDevice = cameraDevice ?: return false
+        val surface = previewSurface ?: return false
+        if (analysisInSession || !openPreview) {
+            return false
+        }
+        Log.d("Camera2", "analysis started, rebuilding the session without zsl")
+        try {
+            captureSession.stopRepeating()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        this.captureSession = null
+        releaseZsl()
+        createSession(cameraDevice, surface, null)
+        return true
+    }
+
+    override fun stopCamera2PreView(callBack: FrameCallBack) {
+        if (frameCallBack !== callBack) {
+            return
+        }
+        frameCallBack = null
+        updateRepeatingRequest()
+    }
+
+    override fun stopCamera2PreView(frameStream: FrameStream) {
+        if (this.frameStream !== frameStream) {
+            return
+        }
+        this.frameStream = null
+        updateRepeatingRequest()
+    }
+
+    override fun stopCamera2PreView() {
+        frameCallBack = null
+        frameStream = null
+        updateRepeatingRequest()
+    }
+
+    /**
+     * Points the repeating request at the outputs that are wanted now. The request is replaced
+     * without stopping the old one first, so preview frames keep coming; the sensor time between
+     * the last frame before and the first frame after is recorded as [CameraMetrics.repeatingSwapGap].
+     * The session may already be gone when a frame consumer detaches after the preview stopped.
+     */
+    @Synchronized
+    private fun updateRepeatingRequest() {
+        val previewRequestBuilder = previewRequestBuilder ?: return
+        val captureSession = captureSession ?: return
+        try {
+            analysisReader?.let {
+                if (analysisStreaming && analysisInSession) previewRequestBuilder.addTarget(it.surface) else previewRequestBuilder.removeTarget(it.surface)
+            }
+            val request = previewRequestBuilder.build()
+            swappedRequest = request
+            captureSession.setRepeatingRequest(request, repeatingCallback ?: captureCallback, cameraHandler)
+        } catch (e: Exception) {
+            e.printStackTrace()
         }
     }
 
@@ -261,6 +832,7 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
         }
 
         try {
+            repeatingCallback = tapFocusCallback
             captureSession?.setRepeatingRequest(previewRequestBuilder!!.build(), tapFocusCallback, cameraHandler)
         } catch (e: Exception) {
         }
@@ -307,6 +879,7 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
                 CameraFlash.ON -> CaptureRequest.FLASH_MODE_TORCH
                 else -> CaptureRequest.FLASH_MODE_OFF
             })
+            repeatingCallback = null
             captureSession.setRepeatingRequest(previewRequestBuilder.build(), captureCallback, cameraHandler)
 
         }
@@ -319,7 +892,16 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
         if (captureSession != null && cameraDevice != null && imageReader != null) {
             val captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE)
             captureBuilder.addTarget(imageReader.surface)
+            if (thumbnailCallback != null) {
+                val analysisReader = analysisReader?.takeIf { analysisInSession }
+                if (analysisReader != null) {
+                    captureBuilder.addTarget(analysisReader.surface)
+                } else {
+                    thumbnailCallback = null
+                }
+            }
             captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
+            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, photoOrientation)
             captureBuilder.set(CaptureRequest.FLASH_MODE, when (flash) {
                 CameraFlash.ON -> CaptureRequest.FLASH_MODE_SINGLE
                 else -> CaptureRequest.FLASH_MODE_OFF
@@ -330,10 +912,31 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
                 else -> 0L
             }
 
+            val photoCallback = photoCallback ?: return
+            val photoOnError = photoOnError ?: {}
+            val photoTimeline = photoTimeline
+            this.photoCallback = null
+            this.photoOnError = null
+            this.photoTimeline = null
+            val pending = stillCaptures.submit(photoTimeline, photoOnError, photoCallback)
+            captureBuilder.setTag(pending)
+
             captureState = STATE_PREVIEW
             cameraHandler.postDelayed({
-                captureSession.capture(captureBuilder.build(), captureCallback, cameraHandler)
+                try {
+                    captureSession.capture(captureBuilder.build(), stillCaptureCallback, cameraHandler)
+                    photoTimeline?.mark(CaptureTimeline.Stage.REQUEST_SUBMITTED)
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                    stillCaptures.onFailed(pending, e)
+                }
             }, delay)
+        } else if (photoCallback != null) {
+            val photoOnError = photoOnError
+            this.photoCallback = null
+            this.photoOnError = null
+            this.photoTimeline = null
+            photoOnError?.invoke(IllegalStateException("no capture session"))
         }
     }
 
@@ -346,6 +949,7 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
             captureState = STATE_PREVIEW
             previewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, null)
             previewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF)
+            repeatingCallback = null
             captureSession.setRepeatingRequest(previewRequestBuilder.build(), captureCallback, cameraHandler)
         }
     }
@@ -356,18 +960,8 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
 
         private fun process(result: CaptureResult) {
 
+            // STATE_PREVIEW needs no work here: photos arrive through photoListener
             when (captureState) {
-                STATE_PREVIEW -> {
-                    val image = imageReader?.acquireLatestImage()
-                    if (image != null) {
-                        val buffer = image.planes[0].buffer
-                        val bytes = ByteArray(buffer.remaining())
-                        buffer.get(bytes)
-                        photoCallback?.invoke(bytes)
-                        photoCallback = null
-                        image.close()
-                    }
-                }
                 STATE_WAITING_LOCK -> {
                     //val afState = result.get(CaptureResult.CONTROL_AF_STATE)
                     captureStillPicture()
@@ -401,22 +995,78 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
         }
 
         override fun onCaptureCompleted(session: CameraCaptureSession, request: CaptureRequest, result: TotalCaptureResult) {
+            val start = System.nanoTime()
             if (!previewStarted && openPreview) {
                 onPreviewStarted()
                 previewStarted = true
             }
+            recordFrameMetadata(result)
+            recordSwapGap(request, result)
+            zslRing?.let { ring ->
+                result.get(CaptureResult.SENSOR_TIMESTAMP)?.let { ring.putResult(it, result) }
+            }
             process(result)
+            metrics.previewCallbackCost.record(System.nanoTime() - start)
         }
 
         override fun onCaptureProgressed(session: CameraCaptureSession, request: CaptureRequest, partialResult: CaptureResult) {
+            val start = System.nanoTime()
             process(partialResult)
+            metrics.previewCallbackCost.record(System.nanoTime() - start)
         }
 
     }
 
+    private val stillCaptureCallback = object : CameraCaptureSession.CaptureCallback() {
+
+        override fun onCaptureStarted(session: CameraCaptureSession, request: CaptureRequest, timestamp: Long, frameNumber: Long) {
+            val pending = request.tag as? StillCaptureQueue.Pending ?: return
+            stillCaptures.onStarted(pending, timestamp)
+        }
+
+        override fun onCaptureFailed(session: CameraCaptureSession, request: CaptureRequest, failure: CaptureFailure) {
+            val pending = request.tag as? StillCaptureQueue.Pending ?: return
+            Log.d("Camera2", "still capture failed reason=" + failure.reason)
+            stillCaptures.onFailed(pending, IllegalStateException("still capture failed, reason " + failure.reason))
+        }
+
+    }
+
+    private val photoListener = ImageReader.OnImageAvailableListener { reader ->
+        try {
+            val image: Image? = reader.acquireNextImage()
+            if (image != null) {
+                stillCaptures.onImage(image)
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    private fun recordSwapGap(request: CaptureRequest, result: CaptureResult) {
+        val timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP) ?: return
+        if (request === swappedRequest) {
+            swappedRequest = null
+            if (lastPreviewTimestamp != 0L) {
+                metrics.repeatingSwapGap.record(timestamp - lastPreviewTimestamp)
+            }
+        }
+        lastPreviewTimestamp = timestamp
+    }
+
+    private fun recordFrameMetadata(result: CaptureResult) {
+        val frameStream = frameStream ?: return
+        val timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP) ?: return
+        frameStream.metadata.put(timestamp,
+                result.get(CaptureResult.SENSOR_EXPOSURE_TIME) ?: -1L,
+                result.get(CaptureResult.SENSOR_SENSITIVITY) ?: -1,
+                result.get(CaptureResult.CONTROL_AF_STATE) ?: -1)
+    }
+
     private val tapFocusCallback = object : CameraCaptureSession.CaptureCallback() {
 
         override fun onCaptureCompleted(session: CameraCaptureSession, request: CaptureRequest, result: TotalCaptureResult) {
+            recordFrameMetadata(result)
             val afState = result.get(CaptureResult.CONTROL_AF_STATE)
             if (afState == null || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
                 Log.d("Camera2", "tap focus failed")
@@ -431,6 +1081,7 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
                 }
                 onTapFocusFinish()
                 Log.d("Camera2", "tap focus finish")
+                repeatingCallback = null
                 captureSession?.setRepeatingRequest(previewRequestBuilder!!.build(), captureCallback, cameraHandler)
             }
         }
@@ -442,11 +1093,20 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
         private const val STATE_WAITING_PRECAPTURE = 2
         private const val STATE_WAITING_NON_PRECAPTURE = 3
         private const val STATE_PICTURE_TAKEN = 4
+
+        private const val ZSL_JPEG_QUALITY = 95
+        private const val ZSL_MAX_IN_FLIGHT = 2
+        // 30 fps
+        private const val ZSL_MAX_FRAME_DURATION = 33_333_333L
+        private const val THUMBNAIL_WIDTH = 320
     }
 
-    private class Attributes(cameraCharacteristics: CameraCharacteristics,
+    private class Attributes(cameraId: String,
+                             cameraCharacteristics: CameraCharacteristics,
                              cameraFacing: CameraFacing) : CameraAttributes {
 
+        override val id: String = cameraId
+
         override val facing: CameraFacing = cameraFacing
 
         override val sensorOrientation: Int = cameraCharacteristics.getSensorOrientation()
@@ -455,6 +1115,8 @@ class Camera2(eventsDelegate: CameraEvents, context: Context) :
 
         override val photoSizes: Array<CameraSize> = cameraCharacteristics.getPhotoSizes()
 
+        override val photoStallDurations: LongArray = cameraCharacteristics.getPhotoStallDurations(photoSizes)
+
         override val flashes: Array<CameraFlash> = cameraCharacteristics.getFlashes()
 
     }
@@ -0,0 +1,172 @@
+package com.camerakit.api.camera2
+
+import android.content.Context
+import android.hardware.camera2.CameraCharacteristics
+import android.hardware.camera2.CameraManager
+import android.os.Handler
+import android.os.Looper
+import androidx.annotation.RequiresApi
+import com.camerakit.api.CameraAttributes
+import com.camerakit.type.CameraFacing
+
+/**
+ * Process-wide cache of camera IDs, their facing, [CameraCharacteristics] and the
+ * [CameraAttributes] derived from them. Every lookup it answers saves a binder call to the
+ * camera service. A camera ID that becomes available without being known drops the ID list, so
+ * external cameras are picked up; one that becomes unavailable drops the list and its entry.
+ */
+@RequiresApi(21)
+class CameraCharacteristicsCache internal constructor(private val source: Source) {
+
+    /** Where the cache loads from; the [CameraManager] in production. */
+    interface Source {
+        fun cameraIdList(): Array<String>
+        fun characteristics(cameraId: String): CameraCharacteristics
+        fun lensFacing(characteristics: CameraCharacteristics): Int? = characteristics.get(CameraCharacteristics.LENS_FACING)
+    }
+
+    private class Entry(val characteristics: CameraCharacteristics, val facing: Int?) {
+        var attributes: CameraAttributes? = null
+    }
+
+    private var cameraIds: Array<String>? = null
+    private val entries = HashMap<String, Entry>()
+
+    var hitCount: Long = 0
+        private set
+        @Synchronized get
+
+    var missCount: Long = 0
+        private set
+        @Synchronized get
+
+    @Synchronized
+    fun cameraIdList(): Array<String> {
+        val cached = cameraIds
+        if (cached != null) {
+            hitCount++
+            return cached
+        }
+        missCount++
+        return source.cameraIdList().also { cameraIds = it }
+    }
+
+    @Synchronized
+    fun cameraId(facing: CameraFacing): String? {
+        val lensFacing = when (facing) {
+            CameraFacing.BACK -> CameraCharacteristics.LENS_FACING_BACK
+            CameraFacing.FRONT -> CameraCharacteristics.LENS_FACING_FRONT
+        }
+        return cameraIdList().find { entry(it).facing == lensFacing }
+    }
+
+    /** The facing of [cameraId], or null for external and unknown lenses. */
+    @Synchronized
+    fun facing(cameraId: String): CameraFacing? {
+        return when (entry(cameraId).facing) {
+            CameraCharacteristics.LENS_FACING_BACK -> CameraFacing.BACK
+            CameraCharacteristics.LENS_FACING_FRONT -> CameraFacing.FRONT
+            else -> null
+        }
+    }
+
+    @Synchronized
+    fun characteristics(cameraId: String): CameraCharacteristics = entry(cameraId).characteristics
+
+    /** The attributes of [cameraId], built by [create] the first time they are asked for. */
+    @Synchronized
+    fun attributes(cameraId: String, create: (characteristics: CameraCharacteristics) -> CameraAttributes): CameraAttributes {
+        val entry = entry(cameraId)
+        val cached = entry.attributes
+        if (cached != null) {
+            hitCount++
+            return cached
+        }
+        missCount++
+        return create(entry.characteristics).also { entry.attributes = it }
+    }
+
+    /** Loads every camera's characteristics and attributes, so opening one needs no camera service calls. */
+    fun prefetch(create: (cameraId: String, characteristics: CameraCharacteristics) -> CameraAttributes?) {
+        // one camera at a time, so an open() on another thread is never held up for long
+        for (cameraId in cameraIdList()) {
+            synchronized(this) {
+                val entry = entry(cameraId)
+                if (entry.attributes == null) {
+                    entry.attributes = create(cameraId, entry.characteristics)
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    fun invalidate() {
+        cameraIds = null
+        entries.clear()
+    }
+
+    @Synchronized
+    internal fun onCameraAvailable(cameraId: String) {
+        val cameraIds = cameraIds ?: return
+        if (cameraId !in cameraIds) {
+            this.cameraIds = null
+        }
+    }
+
+    @Synchronized
+    internal fun onCameraUnavailable(cameraId: String) {
+        entries.remove(cameraId)
+        cameraIds = null
+    }
+
+    private fun entry(cameraId: String): Entry {
+        val cached = entries[cameraId]
+        if (cached != null) {
+            hitCount++
+            return cached
+        }
+        missCount++
+        val characteristics = source.characteristics(cameraId)
+        return Entry(characteristics, source.lensFacing(characteristics)).also { entries[cameraId] = it }
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return "CameraCharacteristicsCache(cameras=${entries.size}, hits=$hitCount, misses=$missCount)"
+    }
+
+    companion object {
+
+        private var instance: CameraCharacteristicsCache? = null
+
+        /**
+         * The process-wide cache. It holds on to the application's [CameraManager] only, so
+         * passing an Activity does not leak it.
+         */
+        @JvmStatic
+        @Synchronized
+        fun get(context: Context): CameraCharacteristicsCache {
+            instance?.let { return it }
+            val cameraManager = context.applicationContext.getSystemService(Context.CAMERA_SERVICE) as CameraManager
+            val cache = CameraCharacteristicsCache(object : Source {
+                override fun cameraIdList(): Array<String> = cameraManager.cameraIdList
+                override fun characteristics(cameraId: String): CameraCharacteristics =
+                        cameraManager.getCameraCharacteristics(cameraId)
+            })
+            // registered for the life of the process, like the cache
+            cameraManager.registerAvailabilityCallback(object : CameraManager.AvailabilityCallback() {
+                override fun onCameraAvailable(cameraId: String) {
+                    cache.onCameraAvailable(cameraId)
+                }
+
+                override fun onCameraUnavailable(cameraId: String) {
+                    cache.onCameraUnavailable(cameraId)
+                }
+            }, Handler(Looper.getMainLooper()))
+            instance = cache
+            return cache
+        }
+
+    }
+
+}
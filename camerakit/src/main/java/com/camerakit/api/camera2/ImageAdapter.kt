@@ -0,0 +1,49 @@
+package com.camerakit.api.camera2
+
+import android.media.Image
+import androidx.annotation.RequiresApi
+import com.camerakit.frame.FrameImage
+import java.nio.ByteBuffer
+
+@RequiresApi(21)
+internal class ImageAdapter : FrameImage {
+
+    private var image: Image? = null
+    private var planes: Array<Image.Plane>? = null
+
+    override val width: Int
+        get() = image?.width ?: 0
+
+    override val height: Int
+        get() = image?.height ?: 0
+
+    override val planeCount: Int
+        get() = planes?.size ?: 0
+
+    override val timestamp: Long
+        get() = image?.timestamp ?: 0L
+
+    override fun planeBuffer(plane: Int): ByteBuffer {
+        return planes!![plane].buffer
+    }
+
+    override fun rowStride(plane: Int): Int {
+        return planes!![plane].rowStride
+    }
+
+    override fun pixelStride(plane: Int): Int {
+        return planes!![plane].pixelStride
+    }
+
+    fun wrap(image: Image): ImageAdapter {
+        this.image = image
+        this.planes = image.planes
+        return this
+    }
+
+    fun clear() {
+        image = null
+        planes = null
+    }
+
+}
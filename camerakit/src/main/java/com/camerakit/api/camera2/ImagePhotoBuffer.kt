@@ -0,0 +1,26 @@
+package com.camerakit.api.camera2
+
+import android.media.Image
+import androidx.annotation.RequiresApi
+import com.camerakit.api.PhotoBuffer
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicBoolean
+
+@RequiresApi(21)
+internal class ImagePhotoBuffer(private val image: Image, private val onClose: () -> Unit = {}) : PhotoBuffer {
+
+    override val buffer: ByteBuffer = image.planes[0].buffer
+
+    override val timestamp: Long = image.timestamp
+
+    private val closed = AtomicBoolean()
+
+    // closing twice would hand the reader slot back twice
+    override fun close() {
+        if (closed.compareAndSet(false, true)) {
+            image.close()
+            onClose()
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.camerakit.api.camera2
+
+import android.media.ImageReader
+import androidx.annotation.RequiresApi
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Reference count on an [ImageReader]. The camera holds one reference while the reader is its
+ * output and every image handed off the camera threads holds another, so replacing or releasing
+ * the reader never invalidates an image still being processed. The reader closes with the last
+ * [release].
+ */
+@RequiresApi(21)
+internal class ImageReaderRef(val reader: ImageReader) {
+
+    private val refs = AtomicInteger(1)
+
+    /** Images handed out and not yet released, while the camera still holds the reader. */
+    val outstanding: Int
+        get() = refs.get() - 1
+
+    fun retain() {
+        refs.incrementAndGet()
+    }
+
+    fun release() {
+        if (refs.decrementAndGet() == 0) {
+            reader.close()
+        }
+    }
+
+    /** Drops the camera's reference; no further images are acquired from the reader. */
+    fun retire() {
+        reader.setOnImageAvailableListener(null, null)
+        release()
+    }
+
+}
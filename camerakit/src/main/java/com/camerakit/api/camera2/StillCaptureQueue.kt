@@ -0,0 +1,143 @@
+package com.camerakit.api.camera2
+
+import android.media.Image
+import androidx.annotation.RequiresApi
+import com.camerakit.api.CameraMetrics
+import com.camerakit.api.CaptureTimeline
+import com.camerakit.api.PhotoBuffer
+
+/**
+ * Pairs still capture requests with the JPEG images they produce. Each request carries its
+ * [Pending] entry as the request tag; the entry learns its sensor timestamp in
+ * `onCaptureStarted` and the photo reader's image with the same timestamp completes it,
+ * whichever of the two arrives first. The callback owns the image and must close the
+ * [PhotoBuffer] it is given. Requests are submitted on the caller's thread, results arrive
+ * on the camera handler and [clear] runs on the lifecycle thread, so the queue has a lock of
+ * its own; callbacks, heap copies and image closes run outside it.
+ *
+ * Images handed out and images held here both count against the [reader]'s maxImages.
+ * Once a callback would take the last free slot, the image is copied to the heap and closed
+ * instead, so slow consumers cost a copy rather than a failed acquire and a lost shot.
+ */
+@RequiresApi(21)
+internal class StillCaptureQueue(private val metrics: CameraMetrics) {
+
+    class Pending(val callback: (photo: PhotoBuffer) -> Unit, val timeline: CaptureTimeline?,
+                  val onError: (e: Exception) -> Unit) {
+        var timestamp: Long = -1L
+    }
+
+    private val pending = ArrayList<Pending>()
+    private val images = ArrayList<Image>()
+
+    /** The photo reader; images handed to callbacks hold a reference to it until closed. */
+    @Volatile
+    var reader: ImageReaderRef? = null
+
+    @Synchronized
+    fun submit(timeline: CaptureTimeline? = null, onError: (e: Exception) -> Unit = {},
+               callback: (photo: PhotoBuffer) -> Unit): Pending {
+        return Pending(callback, timeline, onError).also { pending.add(it) }
+    }
+
+    fun onStarted(request: Pending, timestamp: Long) {
+        request.timeline?.mark(CaptureTimeline.Stage.CAPTURE_STARTED)
+        var claimed = false
+        val image = synchronized(this) {
+            request.timestamp = timestamp
+            val i = images.indexOfFirst { it.timestamp == timestamp }
+            if (i < 0) {
+                return
+            }
+            claimed = pending.remove(request)
+            images.removeAt(i)
+        }
+        if (claimed) {
+            deliver(request, image)
+        } else {
+            image.close()
+        }
+    }
+
+    fun onImage(image: Image) {
+        val timestamp = image.timestamp
+        val request = synchronized(this) {
+            var unstarted = 0
+            for (request in pending) {
+                if (request.timestamp == timestamp) {
+                    pending.remove(request)
+                    return@synchronized request
+                }
+                if (request.timestamp == -1L) {
+                    unstarted++
+                }
+            }
+
+            // only hold on to an image a started-but-unannounced capture could still claim
+            if (images.size < Math.min(unstarted, freeSlots())) {
+                images.add(image)
+                return
+            }
+            null
+        }
+        if (request != null) {
+            deliver(request, image)
+        } else {
+            image.close()
+        }
+    }
+
+    /**
+     * Forgets [request] and reports [e] to it; returns false, reporting nothing, if it had
+     * already completed or failed.
+     */
+    fun onFailed(request: Pending, e: Exception): Boolean {
+        val removed = synchronized(this) { pending.remove(request) }
+        if (removed) {
+            request.onError(e)
+        }
+        return removed
+    }
+
+    fun clear() {
+        val images = synchronized(this) {
+            pending.clear()
+            ArrayList(images).also { images.clear() }
+        }
+        for (image in images) {
+            image.close()
+        }
+    }
+
+    // slots left once one is kept free for the next acquire
+    private fun freeSlots(): Int {
+        val reader = reader ?: return 0
+        return reader.reader.maxImages - 1 - reader.outstanding - images.size
+    }
+
+    // called without the lock, once [request] has been taken out of [pending]
+    private fun deliver(request: Pending, image: Image) {
+        request.timeline?.mark(CaptureTimeline.Stage.IMAGE_AVAILABLE)
+        val reader = synchronized(this) {
+            reader?.takeIf { freeSlots() > 0 }?.also { it.retain() }
+        }
+        val photo = if (reader != null) {
+            ImagePhotoBuffer(image) { reader.release() }
+        } else {
+            metrics.countPhotoCopy()
+            val copy = ImagePhotoBuffer(image)
+            try {
+                PhotoBuffer.wrap(copy.toByteArray(), copy.timestamp)
+            } finally {
+                copy.close()
+            }
+        }
+        try {
+            request.callback(photo)
+        } catch (e: Exception) {
+            photo.close()
+            throw e
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.camerakit.api.camera2
+
+import java.util.ArrayDeque
+
+/**
+ * Ring of recent full-resolution images and their capture results for zero-shutter-lag capture.
+ * Images and results are paired by sensor timestamp in whichever order they arrive; [take]
+ * picks the image to encode for a shutter press. Free of camera types, so selection can be
+ * driven with synthetic timestamps.
+ */
+internal class ZslRing<I, R>(val capacity: Int, private val onEvict: (image: I) -> Unit) {
+
+    class Entry<I, R>(val timestamp: Long, val image: I) {
+        var result: R? = null
+    }
+
+    private val entries = ArrayDeque<Entry<I, R>>(capacity)
+
+    // results that arrived before their image
+    private val resultTimestamps = LongArray(capacity + RESULT_SLACK) { -1L }
+    private val results = arrayOfNulls<Any>(capacity + RESULT_SLACK)
+    private var nextResult = 0
+
+    val size: Int
+        @Synchronized get() = entries.size
+
+    @Synchronized
+    fun put(timestamp: Long, image: I) {
+        if (entries.size >= capacity) {
+            onEvict(entries.removeFirst().image)
+        }
+        val entry = Entry<I, R>(timestamp, image)
+        for (i in resultTimestamps.indices) {
+            if (resultTimestamps[i] == timestamp) {
+                @Suppress("UNCHECKED_CAST")
+                entry.result = results[i] as R
+                resultTimestamps[i] = -1L
+                results[i] = null
+                break
+            }
+        }
+        entries.addLast(entry)
+    }
+
+    @Synchronized
+    fun putResult(timestamp: Long, result: R) {
+        for (entry in entries) {
+            if (entry.timestamp == timestamp) {
+                entry.result = result
+                return
+            }
+        }
+        resultTimestamps[nextResult] = timestamp
+        results[nextResult] = result
+        nextResult = (nextResult + 1) % results.size
+    }
+
+    /**
+     * Removes and returns the entry closest to [pressTime], preferring entries whose capture
+     * result has arrived; ties go to the earlier frame. Returns null if the ring is empty or the
+     * closest entry is more than [maxDistanceNanos] away, e.g. because the stream has stalled.
+     * The caller owns the returned image.
+     */
+    @Synchronized
+    fun take(pressTime: Long, maxDistanceNanos: Long = DEFAULT_MAX_DISTANCE): Entry<I, R>? {
+        var best: Entry<I, R>? = null
+        var bestDistance = Long.MAX_VALUE
+        var bestHasResult = false
+        for (entry in entries) {
+            val distance = Math.abs(entry.timestamp - pressTime)
+            val hasResult = entry.result != null
+            val better = when {
+                hasResult != bestHasResult -> hasResult
+                else -> distance < bestDistance
+            }
+            if (best == null || better) {
+                best = entry
+                bestDistance = distance
+                bestHasResult = hasResult
+            }
+        }
+        if (best == null || bestDistance > maxDistanceNanos) {
+            return null
+        }
+        entries.remove(best)
+        return best
+    }
+
+    @Synchronized
+    fun clear() {
+        while (entries.isNotEmpty()) {
+            onEvict(entries.removeFirst().image)
+        }
+        resultTimestamps.fill(-1L)
+        results.fill(null)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_DISTANCE = 200_000_000L
+        private const val RESULT_SLACK = 4
+    }
+
+}
@@ -3,6 +3,7 @@ package com.camerakit.api.camera2.ext
 import android.graphics.ImageFormat
 import android.hardware.camera2.CameraCharacteristics
 import androidx.annotation.RequiresApi
+import android.util.Size
 import android.view.SurfaceHolder
 import com.camerakit.type.CameraFlash
 import com.camerakit.type.CameraSize
@@ -38,6 +39,65 @@ fun CameraCharacteristics.getPhotoSizes(): Array<CameraSize> {
             .toTypedArray()
 }
 
+@RequiresApi(21)
+fun CameraCharacteristics.getPhotoStallDurations(sizes: Array<CameraSize>): LongArray {
+    val streamConfigMap = get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
+            ?: return LongArray(sizes.size)
+
+    return sizes
+            .map { streamConfigMap.getOutputStallDuration(ImageFormat.JPEG, Size(it.width, it.height)) }
+            .toLongArray()
+}
+
+@RequiresApi(21)
+fun CameraCharacteristics.getYuvSizes(): Array<CameraSize> {
+    val streamConfigMap = get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
+            ?: return emptyArray()
+
+    val outputSizes = streamConfigMap.getOutputSizes(ImageFormat.YUV_420_888)
+            ?: return emptyArray()
+
+    return outputSizes
+            .map { CameraSize(it.width, it.height) }
+            .toTypedArray()
+}
+
+/**
+ * Shortest frame duration of YUV_420_888 output at [size] in nanoseconds, 0 if unknown or if
+ * the size is not supported.
+ */
+@RequiresApi(21)
+fun CameraCharacteristics.getYuvMinFrameDuration(size: CameraSize): Long {
+    val streamConfigMap = get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
+            ?: return 0L
+
+    return try {
+        streamConfigMap.getOutputMinFrameDuration(ImageFormat.YUV_420_888, Size(size.width, size.height))
+    } catch (e: IllegalArgumentException) {
+        0L
+    }
+}
+
+/**
+ * Whether the camera's hardware level is at least [level], one of the
+ * `INFO_SUPPORTED_HARDWARE_LEVEL_*` constants. The constants are not ordered by capability.
+ */
+@RequiresApi(21)
+fun CameraCharacteristics.isHardwareLevelAtLeast(level: Int): Boolean {
+    val supported = get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL)
+            ?: return false
+    return hardwareLevelRank(supported) >= hardwareLevelRank(level)
+}
+
+private fun hardwareLevelRank(level: Int): Int = when (level) {
+    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY -> 0
+    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_EXTERNAL -> 1
+    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED -> 2
+    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL -> 3
+    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3 -> 4
+    else -> 2
+}
+
 @RequiresApi(21)
 fun CameraCharacteristics.getFlashes(): Array<CameraFlash> {
     val flashSupported = get(CameraCharacteristics.FLASH_INFO_AVAILABLE)
@@ -2,15 +2,16 @@ package com.camerakit.api.camera2.ext
 
 import android.hardware.camera2.CameraCaptureSession
 import android.hardware.camera2.CameraDevice
-import android.media.ImageReader
 import android.os.Handler
 import androidx.annotation.RequiresApi
 import android.util.Log
 import android.view.Surface
 
 @RequiresApi(21)
-fun CameraDevice.getCaptureSession(surface: Surface, imageReader: ImageReader, handler: Handler, callback: (captureSession: CameraCaptureSession?) -> Unit) {
-    createCaptureSession(listOf(surface, imageReader.surface), object: CameraCaptureSession.StateCallback() {
+fun CameraDevice.getCaptureSession(surfaces: List<Surface>, handler: Handler,
+                                   onConfigureFailed: (() -> Unit)? = null,
+                                   callback: (captureSession: CameraCaptureSession?) -> Unit) {
+    createCaptureSession(surfaces, object: CameraCaptureSession.StateCallback() {
         override fun onConfigured(captureSession: CameraCaptureSession) {
             callback(captureSession)
         }
@@ -21,7 +22,11 @@ fun CameraDevice.getCaptureSession(surface: Surface, imageReader: ImageReader, h
         }
 
         override fun onConfigureFailed(captureSession: CameraCaptureSession) {
-            callback(null)
+            if (onConfigureFailed != null) {
+                onConfigureFailed()
+            } else {
+                callback(null)
+            }
         }
     }, handler)
 }
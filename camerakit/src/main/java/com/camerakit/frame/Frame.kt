@@ -0,0 +1,227 @@
+package com.camerakit.frame
+
+import com.camerakit.type.FrameFormat
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A reference-counted analysis frame. Frames handed to a [FrameListener] start with one
+ * reference which the consumer must give back with [release]; call [retain] to keep the
+ * frame alive past the callback.
+ *
+ * Pooled frames hold a copy of the image in [buffer]. Zero-copy frames expose the camera's
+ * own plane buffers through [planeBuffer]; those are only valid until the last release, which
+ * closes the underlying image.
+ */
+class Frame private constructor(private val storage: ByteBuffer?,
+                                 private val pool: FramePool?,
+                                 private val image: FrameImage?,
+                                 private val closeable: AutoCloseable?) {
+
+    internal constructor(capacity: Int, direct: Boolean, pool: FramePool?) : this(
+            when (direct) {
+                true -> ByteBuffer.allocateDirect(capacity)
+                false -> ByteBuffer.allocate(capacity)
+            }, pool, null, null)
+
+    /** True if the planes are the camera's own buffers rather than a pooled copy. */
+    val isZeroCopy: Boolean
+        get() = image != null
+
+    /** Pooled copy of all planes back to back. Not available on zero-copy frames. */
+    val buffer: ByteBuffer
+        get() = storage ?: throw IllegalStateException("Zero-copy frames have no packed buffer, use planeBuffer()")
+
+    val capacity: Int
+        get() = storage?.capacity() ?: 0
+
+    val size: Int
+        get() {
+            if (storage != null) {
+                return storage.limit()
+            }
+            var size = 0
+            for (i in 0 until planeCount) {
+                size += image!!.planeBuffer(i).capacity()
+            }
+            return size
+        }
+
+    var width: Int = 0
+        internal set
+
+    var height: Int = 0
+        internal set
+
+    var format: FrameFormat = FrameFormat.YUV_420_888
+        internal set
+
+    /** Sensor timestamp of the image in nanoseconds, comparable with `SENSOR_TIMESTAMP`. */
+    var timestamp: Long = 0L
+        internal set
+
+    /** Position of this frame in the stream; gaps mean frames were dropped. */
+    var sequence: Long = 0L
+        internal set
+
+    /** Clockwise rotation in degrees needed to display the frame upright. */
+    var rotation: Int = 0
+        internal set
+
+    /** Exposure time in nanoseconds, or -1 if no capture result matched this frame. */
+    var exposureTime: Long = -1L
+        internal set
+
+    /** Sensor sensitivity (ISO), or -1 if no capture result matched this frame. */
+    var sensitivity: Int = -1
+        internal set
+
+    /** `CONTROL_AF_STATE` of the matching capture result, or -1 if none matched. */
+    var afState: Int = -1
+        internal set
+
+    var planeCount: Int = 0
+        internal set
+
+    private val planeOffsets = IntArray(MAX_PLANES)
+    private val rowStrides = IntArray(MAX_PLANES)
+    private val pixelStrides = IntArray(MAX_PLANES)
+
+    fun planeOffset(plane: Int): Int = planeOffsets[checkPlane(plane)]
+
+    fun rowStride(plane: Int): Int = rowStrides[checkPlane(plane)]
+
+    fun pixelStride(plane: Int): Int = pixelStrides[checkPlane(plane)]
+
+    private val planeViews: Array<ByteBuffer>? = storage?.let { buffer ->
+        Array(MAX_PLANES) { buffer.duplicate() }
+    }
+
+    /**
+     * The bytes of one plane, positioned at its first byte. The returned buffer is shared, so
+     * do not hold on to it past [release].
+     */
+    fun planeBuffer(plane: Int): ByteBuffer {
+        checkAlive()
+        checkPlane(plane)
+        val image = image
+        if (image != null) {
+            return image.planeBuffer(plane)
+        }
+
+        val end = if (plane + 1 < planeCount) planeOffsets[plane + 1] else storage!!.limit()
+        val view = planeViews!![plane]
+        view.limit(end)
+        view.position(planeOffsets[plane])
+        return view
+    }
+
+    /**
+     * Copies all planes back to back into [dst], starting at its position, and advances the
+     * position. Returns the number of bytes written.
+     */
+    fun copyTo(dst: ByteBuffer): Int {
+        checkAlive()
+        val start = dst.position()
+        for (i in 0 until planeCount) {
+            val source = planeBuffer(i)
+            val position = source.position()
+            dst.put(source)
+            source.position(position)
+        }
+        return dst.position() - start
+    }
+
+    /**
+     * Packs the planes of [source] into this frame's buffer and copies its geometry and
+     * metadata. The buffer must already be sized to [source]'s [size].
+     */
+    internal fun copyFrom(source: Frame) {
+        val buffer = buffer
+        buffer.clear()
+        planeCount = 0
+        for (i in 0 until source.planeCount) {
+            setPlane(i, buffer.position(), source.rowStride(i), source.pixelStride(i))
+            val plane = source.planeBuffer(i)
+            val position = plane.position()
+            buffer.put(plane)
+            plane.position(position)
+        }
+        buffer.flip()
+        width = source.width
+        height = source.height
+        format = source.format
+        timestamp = source.timestamp
+        sequence = source.sequence
+        rotation = source.rotation
+        exposureTime = source.exposureTime
+        sensitivity = source.sensitivity
+        afState = source.afState
+    }
+
+    private val refCount = AtomicInteger(0)
+
+    fun retain(): Frame {
+        if (refCount.getAndIncrement() <= 0) {
+            refCount.decrementAndGet()
+            throw IllegalStateException("Frame has already been released")
+        }
+        return this
+    }
+
+    fun release() {
+        val count = refCount.decrementAndGet()
+        if (count == 0) {
+            if (closeable != null) {
+                closeable.close()
+            }
+            pool?.recycle(this)
+        } else if (count < 0) {
+            refCount.incrementAndGet()
+            throw IllegalStateException("Frame released more times than retained")
+        }
+    }
+
+    internal fun open(): Frame {
+        refCount.set(1)
+        storage?.clear()
+        planeCount = 0
+        exposureTime = -1L
+        sensitivity = -1
+        afState = -1
+        return this
+    }
+
+    internal fun setPlane(plane: Int, offset: Int, rowStride: Int, pixelStride: Int) {
+        planeOffsets[plane] = offset
+        rowStrides[plane] = rowStride
+        pixelStrides[plane] = pixelStride
+        planeCount = Math.max(planeCount, plane + 1)
+    }
+
+    private fun checkAlive() {
+        if (refCount.get() <= 0) {
+            throw IllegalStateException("Frame has already been released")
+        }
+    }
+
+    private fun checkPlane(plane: Int): Int {
+        if (plane < 0 || plane >= planeCount) {
+            throw IndexOutOfBoundsException("plane $plane of $planeCount")
+        }
+        return plane
+    }
+
+    companion object {
+        const val MAX_PLANES = 3
+
+        internal fun wrap(image: FrameImage, planeCount: Int, closeable: AutoCloseable): Frame {
+            val frame = Frame(null, null, image, closeable).open()
+            for (i in 0 until Math.min(planeCount, MAX_PLANES)) {
+                frame.setPlane(i, 0, image.rowStride(i), image.pixelStride(i))
+            }
+            return frame
+        }
+    }
+
+}
@@ -0,0 +1,10 @@
+package com.camerakit.frame
+
+enum class FrameBackpressure {
+    /** Only the newest undelivered frame is kept; older pending frames are dropped. */
+    KEEP_LATEST,
+    /** Up to `capacity` frames are queued; when full the oldest queued frame is dropped. */
+    DROP_OLDEST,
+    /** Up to `capacity` frames are queued; when full the producer waits for the consumer. */
+    BLOCK_PRODUCER;
+}
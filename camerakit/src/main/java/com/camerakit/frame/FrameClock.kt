@@ -0,0 +1,13 @@
+package com.camerakit.frame
+
+interface FrameClock {
+
+    fun nanoTime(): Long
+
+    companion object {
+        val SYSTEM: FrameClock = object : FrameClock {
+            override fun nanoTime(): Long = System.nanoTime()
+        }
+    }
+
+}
@@ -0,0 +1,11 @@
+package com.camerakit.frame
+
+enum class FrameCopyMode {
+    /** Each frame is copied into a pooled buffer and the camera image is returned at once. */
+    COPY,
+    /**
+     * Frames wrap the camera image's own plane buffers and the image is closed on the last
+     * [Frame.release]. Holding frames holds camera images, so release them promptly.
+     */
+    ZERO_COPY;
+}
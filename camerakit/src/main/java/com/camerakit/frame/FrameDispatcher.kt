@@ -0,0 +1,140 @@
+package com.camerakit.frame
+
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Queues frames between the camera producer and a [FrameListener] according to a
+ * [FrameBackpressure] policy. Frames are delivered one at a time on [executor]; frames dropped
+ * by the policy are released back to their pool.
+ */
+class FrameDispatcher(val policy: FrameBackpressure,
+                      capacity: Int,
+                      private val executor: Executor,
+                      val stats: FrameStats = FrameStats()) {
+
+    val capacity: Int = when (policy) {
+        FrameBackpressure.KEEP_LATEST -> 1
+        else -> Math.max(1, capacity)
+    }
+
+    @Volatile
+    var listener: FrameListener? = null
+
+    @Volatile
+    var governor: FrameGovernor? = null
+
+    /** True when no frame is queued or being delivered. */
+    val isIdle: Boolean
+        get() = lock.withLock { queue.isEmpty() && !delivering }
+
+    private val queue = ArrayDeque<Frame>(this.capacity)
+    private val lock = ReentrantLock()
+    private val notFull = lock.newCondition()
+    private var draining = false
+    private var delivering = false
+    private var closed = false
+
+    private val drainTask = Runnable { drain() }
+
+    fun dispatch(frame: Frame) {
+        var schedule = false
+        lock.withLock {
+            if (closed) {
+                stats.onDropped()
+                frame.release()
+                return
+            }
+
+            while (queue.size >= capacity) {
+                if (policy == FrameBackpressure.BLOCK_PRODUCER) {
+                    notFull.await()
+                    if (closed) {
+                        stats.onDropped()
+                        frame.release()
+                        return
+                    }
+                } else {
+                    stats.onDropped()
+                    queue.pollFirst()?.release()
+                }
+            }
+
+            queue.addLast(frame)
+            stats.onQueueDepth(queue.size)
+            if (!draining) {
+                draining = true
+                schedule = true
+            }
+        }
+
+        if (schedule) {
+            try {
+                executor.execute(drainTask)
+            } catch (e: RejectedExecutionException) {
+                lock.withLock {
+                    draining = false
+                }
+                clear()
+            }
+        }
+    }
+
+    fun clear() {
+        lock.withLock {
+            while (queue.isNotEmpty()) {
+                stats.onDropped()
+                queue.pollFirst()?.release()
+            }
+            stats.onQueueDepth(0)
+            notFull.signalAll()
+        }
+    }
+
+    fun close() {
+        lock.withLock {
+            closed = true
+        }
+        clear()
+    }
+
+    private fun drain() {
+        while (true) {
+            val frame = lock.withLock {
+                val next = queue.pollFirst()
+                if (next == null) {
+                    draining = false
+                    return
+                }
+                stats.onQueueDepth(queue.size)
+                notFull.signal()
+                delivering = true
+                next
+            }
+
+            val listener = listener
+            if (listener != null) {
+                stats.onDelivered()
+                val governor = governor
+                val start = governor?.now() ?: 0L
+                try {
+                    listener.onFrame(frame)
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+                governor?.onDelivered(governor.now() - start)
+            } else {
+                stats.onDropped()
+                frame.release()
+            }
+
+            lock.withLock {
+                delivering = false
+            }
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.camerakit.frame
+
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.flow
+
+/**
+ * Emits at most one frame per [periodMillis] and releases the frames it skips. Use this
+ * instead of `sample`, which would drop frames without returning them to the pool. Plain
+ * `buffer(capacity)` is safe since it suspends rather than dropping.
+ */
+fun Flow<Frame>.sampleFrames(periodMillis: Long): Flow<Frame> = flow {
+    val periodNanos = periodMillis * 1_000_000L
+    var lastNanos = 0L
+    var first = true
+    collect { frame ->
+        val now = System.nanoTime()
+        if (first || now - lastNanos >= periodNanos) {
+            first = false
+            lastNanos = now
+            emit(frame)
+        } else {
+            frame.release()
+        }
+    }
+}
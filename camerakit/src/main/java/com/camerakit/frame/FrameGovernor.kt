@@ -0,0 +1,142 @@
+package com.camerakit.frame
+
+import com.camerakit.util.LatencyStats
+
+/**
+ * Decides which analysis frames are copied and delivered, based on how long the consumer
+ * spends in [FrameListener.onFrame]. Skipped frames are never copied, and the preview's
+ * repeating request is left alone, so throttling analysis does not affect the preview.
+ */
+class FrameGovernor(private val clock: FrameClock = FrameClock.SYSTEM) {
+
+    enum class Mode {
+        /** Every frame is offered to the stream. */
+        UNLIMITED,
+        /** At most [maxFps] frames per second. */
+        MAX_RATE,
+        /** The consumer may spend at most [cpuBudget] of wall time in `onFrame`. */
+        CPU_BUDGET,
+        /** A frame is taken only when the previous one has been fully delivered. */
+        WHEN_IDLE;
+    }
+
+    var mode: Mode = Mode.UNLIMITED
+        private set
+        @Synchronized get
+
+    /** Frame rate ceiling; also applies on top of the other modes when greater than zero. */
+    var maxFps: Float = 0f
+        private set
+        @Synchronized get
+
+    var cpuBudget: Float = 1f
+        private set
+        @Synchronized get
+
+    /** Time spent by the consumer in `onFrame`. */
+    val consumerCost: LatencyStats = LatencyStats()
+
+    var acceptedCount: Long = 0
+        private set
+        @Synchronized get
+
+    var skippedCount: Long = 0
+        private set
+        @Synchronized get
+
+    /** Minimum spacing between accepted frames the governor is currently enforcing. */
+    var intervalNanos: Long = 0
+        private set
+        @Synchronized get
+
+    var averageCostNanos: Long = 0
+        private set
+        @Synchronized get
+
+    private var nextDueNanos = 0L
+    private var hasAccepted = false
+
+    @Synchronized
+    fun configure(mode: Mode, maxFps: Float = 0f, cpuBudget: Float = 1f) {
+        this.mode = mode
+        this.maxFps = Math.max(0f, maxFps)
+        this.cpuBudget = cpuBudget.coerceIn(0.01f, 1f)
+        hasAccepted = false
+        updateInterval()
+    }
+
+    /**
+     * Called for every camera frame before it is copied. [idle] is true when no earlier frame
+     * is still queued or being delivered.
+     */
+    @Synchronized
+    fun shouldAccept(idle: Boolean): Boolean {
+        if (mode == Mode.WHEN_IDLE && !idle) {
+            skippedCount++
+            return false
+        }
+
+        val now = clock.nanoTime()
+        val interval = intervalNanos
+        if (interval > 0L && hasAccepted) {
+            // a quarter interval of slack keeps e.g. 15 fps out of a jittery 30 fps source
+            if (now < nextDueNanos - interval / 4) {
+                skippedCount++
+                return false
+            }
+            nextDueNanos = if (now > nextDueNanos + interval) now + interval else nextDueNanos + interval
+        } else {
+            nextDueNanos = now + interval
+        }
+
+        hasAccepted = true
+        acceptedCount++
+        return true
+    }
+
+    fun now(): Long = clock.nanoTime()
+
+    /** Called after each `onFrame` returns, with the time the consumer spent in it. */
+    fun onDelivered(costNanos: Long) {
+        consumerCost.record(costNanos)
+        synchronized(this) {
+            averageCostNanos = when (averageCostNanos) {
+                0L -> costNanos
+                else -> averageCostNanos + (costNanos - averageCostNanos) / COST_SMOOTHING
+            }
+            updateInterval()
+        }
+    }
+
+    @Synchronized
+    fun reset() {
+        acceptedCount = 0
+        skippedCount = 0
+        averageCostNanos = 0
+        hasAccepted = false
+        consumerCost.reset()
+        updateInterval()
+    }
+
+    private fun updateInterval() {
+        val ceiling = if (maxFps > 0f) (1_000_000_000L / maxFps).toLong() else 0L
+        val interval = when (mode) {
+            Mode.MAX_RATE -> ceiling
+            Mode.CPU_BUDGET -> (averageCostNanos / cpuBudget).toLong()
+            else -> 0L
+        }
+        intervalNanos = Math.max(interval, ceiling)
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return "FrameGovernor(mode=$mode, maxFps=$maxFps, cpuBudget=$cpuBudget, accepted=$acceptedCount, " +
+                "skipped=$skippedCount, intervalMs=${intervalNanos / 1e6}, averageCostMs=${averageCostNanos / 1e6}, " +
+                "cost=[$consumerCost])"
+    }
+
+    companion object {
+        private const val COST_SMOOTHING = 8
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.camerakit.frame
+
+import java.nio.ByteBuffer
+
+/**
+ * Read-only view of a camera image that [FrameStream] copies from. Camera backends adapt their
+ * native image type to this, which also lets the stream be driven by synthetic images.
+ */
+interface FrameImage {
+
+    val width: Int
+    val height: Int
+    val planeCount: Int
+    val timestamp: Long
+
+    fun planeBuffer(plane: Int): ByteBuffer
+    fun rowStride(plane: Int): Int
+    fun pixelStride(plane: Int): Int
+
+}
@@ -0,0 +1,11 @@
+package com.camerakit.frame
+
+interface FrameListener {
+
+    /**
+     * Called with a pooled frame. The frame must be released with [Frame.release] once the
+     * consumer is done with it, otherwise its buffer never returns to the pool.
+     */
+    fun onFrame(frame: Frame)
+
+}
@@ -0,0 +1,48 @@
+package com.camerakit.frame
+
+/**
+ * Keeps the last few capture results keyed by sensor timestamp so they can be attached to the
+ * image with the same timestamp. Entries live in fixed arrays, so recording a result does not
+ * allocate.
+ */
+class FrameMetadataCache(private val size: Int = DEFAULT_SIZE) {
+
+    private val timestamps = LongArray(size)
+    private val exposureTimes = LongArray(size)
+    private val sensitivities = IntArray(size)
+    private val afStates = IntArray(size)
+    private var next = 0
+
+    @Synchronized
+    fun put(timestamp: Long, exposureTime: Long, sensitivity: Int, afState: Int) {
+        timestamps[next] = timestamp
+        exposureTimes[next] = exposureTime
+        sensitivities[next] = sensitivity
+        afStates[next] = afState
+        next = (next + 1) % size
+    }
+
+    @Synchronized
+    fun fill(frame: Frame): Boolean {
+        for (i in 0 until size) {
+            if (timestamps[i] == frame.timestamp && timestamps[i] != 0L) {
+                frame.exposureTime = exposureTimes[i]
+                frame.sensitivity = sensitivities[i]
+                frame.afState = afStates[i]
+                return true
+            }
+        }
+        return false
+    }
+
+    @Synchronized
+    fun clear() {
+        timestamps.fill(0L)
+        next = 0
+    }
+
+    companion object {
+        const val DEFAULT_SIZE = 8
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.camerakit.frame
+
+import java.util.ArrayDeque
+
+/**
+ * Bounded pool of [Frame] buffers. At most [maxFrames] buffers are ever allocated; once they are
+ * all in use [acquire] returns null instead of allocating, so a slow consumer drops frames
+ * rather than growing the heap.
+ */
+class FramePool(val maxFrames: Int, val direct: Boolean = false) {
+
+    private val free = ArrayDeque<Frame>(maxFrames)
+    private var allocated = 0
+
+    var hitCount: Long = 0
+        private set
+        @Synchronized get
+
+    var missCount: Long = 0
+        private set
+        @Synchronized get
+
+    var exhaustedCount: Long = 0
+        private set
+        @Synchronized get
+
+    @Synchronized
+    fun acquire(size: Int): Frame? {
+        val frame = free.pollFirst()
+        if (frame != null) {
+            if (frame.capacity >= size) {
+                hitCount++
+                return frame.open().also { it.buffer.limit(size) }
+            }
+            // buffer too small for the current stream configuration, replace it
+            allocated--
+        }
+
+        if (allocated >= maxFrames) {
+            exhaustedCount++
+            return null
+        }
+
+        allocated++
+        missCount++
+        return Frame(size, direct, this).open().also { it.buffer.limit(size) }
+    }
+
+    @Synchronized
+    fun clear() {
+        allocated -= free.size
+        free.clear()
+    }
+
+    @Synchronized
+    internal fun recycle(frame: Frame) {
+        if (allocated > maxFrames || free.size >= maxFrames) {
+            allocated--
+            return
+        }
+        free.addLast(frame)
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return "FramePool(allocated=$allocated, free=${free.size}, hits=$hitCount, misses=$missCount, exhausted=$exhaustedCount)"
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.camerakit.frame
+
+/**
+ * Region of interest in preview view coordinates. Only this part of each analysis image is
+ * copied, downscaled so the upright crop is at most [targetWidth] pixels wide (0 keeps the
+ * native resolution).
+ */
+class FrameRegion(val left: Float,
+                  val top: Float,
+                  val right: Float,
+                  val bottom: Float,
+                  val viewWidth: Int,
+                  val viewHeight: Int,
+                  val targetWidth: Int) {
+
+    companion object {
+
+        /** Centre [fraction] of the view in both dimensions. */
+        fun centre(viewWidth: Int, viewHeight: Int, fraction: Float, targetWidth: Int): FrameRegion {
+            val insetX = viewWidth * (1f - fraction) / 2f
+            val insetY = viewHeight * (1f - fraction) / 2f
+            return FrameRegion(insetX, insetY, viewWidth - insetX, viewHeight - insetY,
+                    viewWidth, viewHeight, targetWidth)
+        }
+
+    }
+
+}
+
+/**
+ * Maps a [FrameRegion] onto analysis image pixels. The view to preview texture step mirrors
+ * the centre-crop viewport in CameraSurfaceView::drawTexture; preview and analysis streams are
+ * then related through the sensor's active array, of which each stream is a centred crop.
+ */
+internal class FrameRegionMapper {
+
+    var x = 0
+        private set
+    var y = 0
+        private set
+    var width = 0
+        private set
+    var height = 0
+        private set
+    var dstWidth = 0
+        private set
+    var dstHeight = 0
+        private set
+
+    private val corners = FloatArray(4)
+
+    fun map(region: FrameRegion,
+            textureWidth: Int, textureHeight: Int,
+            rotation: Int,
+            sensorAspectRatio: Float,
+            imageWidth: Int, imageHeight: Int): Boolean {
+        if (region.viewWidth <= 0 || region.viewHeight <= 0 || textureWidth <= 0 || textureHeight <= 0
+                || imageWidth < 2 || imageHeight < 2) {
+            return false
+        }
+
+        // view -> upright texture, as drawTexture fills the view keeping the texture aspect
+        val viewWidth = region.viewWidth.toFloat()
+        val viewHeight = region.viewHeight.toFloat()
+        val candidateWidth = textureWidth.toFloat() / textureHeight * viewHeight
+        val candidateHeight = textureHeight.toFloat() / textureWidth * viewWidth
+        var displayWidth = viewWidth
+        var displayHeight = viewHeight
+        var offsetX = 0f
+        var offsetY = 0f
+        if (candidateWidth > viewWidth) {
+            displayWidth = candidateWidth
+            offsetX = -(candidateWidth - viewWidth) / 2f
+        } else if (candidateHeight > viewHeight) {
+            displayHeight = candidateHeight
+            offsetY = -(candidateHeight - viewHeight) / 2f
+        }
+
+        val u0 = (region.left - offsetX) / displayWidth
+        val v0 = (region.top - offsetY) / displayHeight
+        val u1 = (region.right - offsetX) / displayWidth
+        val v1 = (region.bottom - offsetY) / displayHeight
+
+        // upright -> buffer orientation, undoing the clockwise display rotation
+        toBuffer(u0, v0, rotation, 0)
+        toBuffer(u1, v1, rotation, 2)
+        var bx0 = Math.min(corners[0], corners[2])
+        var bx1 = Math.max(corners[0], corners[2])
+        var by0 = Math.min(corners[1], corners[3])
+        var by1 = Math.max(corners[1], corners[3])
+
+        // preview buffer -> sensor -> analysis buffer
+        val quarterTurn = (rotation / 90) % 2 != 0
+        val previewAspect = when (quarterTurn) {
+            true -> textureHeight.toFloat() / textureWidth
+            false -> textureWidth.toFloat() / textureHeight
+        }
+        val imageAspect = imageWidth.toFloat() / imageHeight
+        val sensorAspect = if (sensorAspectRatio > 0f) sensorAspectRatio else previewAspect
+
+        val scaleX = coverage(previewAspect / sensorAspect) / coverage(imageAspect / sensorAspect)
+        val scaleY = coverage(sensorAspect / previewAspect) / coverage(sensorAspect / imageAspect)
+        bx0 = clamp01(0.5f + (bx0 - 0.5f) * scaleX)
+        bx1 = clamp01(0.5f + (bx1 - 0.5f) * scaleX)
+        by0 = clamp01(0.5f + (by0 - 0.5f) * scaleY)
+        by1 = clamp01(0.5f + (by1 - 0.5f) * scaleY)
+
+        // chroma is subsampled by 2, so keep the crop on even pixels
+        x = (bx0 * imageWidth).toInt() and 1.inv()
+        y = (by0 * imageHeight).toInt() and 1.inv()
+        width = Math.max(2, (Math.ceil((bx1 * imageWidth).toDouble()).toInt() - x) and 1.inv())
+        height = Math.max(2, (Math.ceil((by1 * imageHeight).toDouble()).toInt() - y) and 1.inv())
+        width = Math.min(width, (imageWidth - x) and 1.inv())
+        height = Math.min(height, (imageHeight - y) and 1.inv())
+        if (width < 2 || height < 2) {
+            return false
+        }
+
+        val uprightWidth = if (quarterTurn) height else width
+        val scale = when (region.targetWidth in 1 until uprightWidth) {
+            true -> region.targetWidth.toFloat() / uprightWidth
+            false -> 1f
+        }
+        dstWidth = Math.max(2, (width * scale).toInt() and 1.inv())
+        dstHeight = Math.max(2, (height * scale).toInt() and 1.inv())
+        return true
+    }
+
+    private fun toBuffer(u: Float, v: Float, rotation: Int, index: Int) {
+        when (((rotation % 360) + 360) % 360) {
+            90 -> {
+                corners[index] = v
+                corners[index + 1] = 1f - u
+            }
+            180 -> {
+                corners[index] = 1f - u
+                corners[index + 1] = 1f - v
+            }
+            270 -> {
+                corners[index] = 1f - v
+                corners[index + 1] = u
+            }
+            else -> {
+                corners[index] = u
+                corners[index + 1] = v
+            }
+        }
+    }
+
+    // fraction of the sensor a centred crop covers along one axis, given aspect / sensor aspect
+    private fun coverage(relativeAspect: Float): Float = Math.min(1f, relativeAspect)
+
+    private fun clamp01(value: Float): Float = Math.max(0f, Math.min(1f, value))
+
+}
@@ -0,0 +1,145 @@
+package com.camerakit.frame
+
+/**
+ * Keeps copies of the most recent frames so a trigger can look back at what happened before
+ * it fired. Set it as (or call it from) a [FrameListener]; every incoming frame is copied into
+ * a slot from the buffer's own [FramePool] and released straight away, so the stream's pool is
+ * never held up.
+ *
+ * The number of slots is the smaller of [maxFrames] and what fits in [byteBudget] at the
+ * current frame size. Once the slots exist they are reused, so steady-state buffering does not
+ * allocate. With [maxAgeNanos] set, frames older than that relative to the newest frame are
+ * evicted as well.
+ */
+class FrameRingBuffer(val byteBudget: Long,
+                      val maxFrames: Int = Int.MAX_VALUE,
+                      val maxAgeNanos: Long = 0L) : FrameListener {
+
+    private var pool: FramePool? = null
+    private var frameSize = 0
+    private var slots: Array<Frame?> = arrayOfNulls(0)
+    private var head = 0
+    private var count = 0
+
+    /** Frames evicted to make room for a newer one, or because they got too old. */
+    var evictedCount: Long = 0
+        private set
+        @Synchronized get
+
+    /** Frames not buffered because every slot was still held by a snapshot. */
+    var droppedCount: Long = 0
+        private set
+        @Synchronized get
+
+    val size: Int
+        @Synchronized get() = count
+
+    val slotCount: Int
+        @Synchronized get() = slots.size
+
+    val bufferedBytes: Long
+        @Synchronized get() = count.toLong() * frameSize
+
+    override fun onFrame(frame: Frame) {
+        try {
+            push(frame)
+        } finally {
+            frame.release()
+        }
+    }
+
+    @Synchronized
+    fun push(frame: Frame) {
+        val size = frame.size
+        if (size != frameSize || pool == null) {
+            resize(size)
+        }
+        val pool = pool ?: return
+
+        if (count == slots.size) {
+            evictOldest()
+        }
+        var slot = pool.acquire(size)
+        while (slot == null && count > 0) {
+            evictOldest()
+            slot = pool.acquire(size)
+        }
+        if (slot == null) {
+            // every buffer is pinned by a snapshot
+            droppedCount++
+            return
+        }
+        slot.copyFrom(frame)
+
+        slots[(head + count) % slots.size] = slot
+        count++
+
+        if (maxAgeNanos > 0L) {
+            val oldest = slot.timestamp - maxAgeNanos
+            while (count > 1 && slots[head]!!.timestamp < oldest) {
+                evictOldest()
+            }
+        }
+    }
+
+    /**
+     * Buffered frames captured at or before [timestamp], oldest first. The frames are shared
+     * with the buffer, not copied: each one is retained for the caller and must be released.
+     * While a snapshot holds a frame its slot cannot be reused.
+     */
+    @Synchronized
+    fun snapshot(timestamp: Long = Long.MAX_VALUE): List<Frame> {
+        val frames = ArrayList<Frame>(count)
+        for (i in 0 until count) {
+            val frame = slots[(head + i) % slots.size]!!
+            if (frame.timestamp > timestamp) {
+                break
+            }
+            frames.add(frame.retain())
+        }
+        return frames
+    }
+
+    @Synchronized
+    fun clear() {
+        while (count > 0) {
+            evictOldest()
+        }
+    }
+
+    @Synchronized
+    fun resetStats() {
+        evictedCount = 0
+        droppedCount = 0
+    }
+
+    private fun evictOldest() {
+        val frame = slots[head]!!
+        slots[head] = null
+        head = (head + 1) % slots.size
+        count--
+        evictedCount++
+        frame.release()
+    }
+
+    private fun resize(size: Int) {
+        clear()
+        pool?.clear()
+        frameSize = size
+        val slotCount = Math.min(maxFrames.toLong(), byteBudget / Math.max(size, 1)).toInt()
+        if (slotCount <= 0) {
+            pool = null
+            slots = arrayOfNulls(0)
+            return
+        }
+        pool = FramePool(slotCount)
+        slots = arrayOfNulls(slotCount)
+        head = 0
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return "FrameRingBuffer(frames=$count/${slots.size}, bytes=${bufferedBytes}, evicted=$evictedCount, dropped=$droppedCount)"
+    }
+
+}
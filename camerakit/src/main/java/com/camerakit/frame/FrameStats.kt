@@ -0,0 +1,73 @@
+package com.camerakit.frame
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+class FrameStats {
+
+    private val produced = AtomicLong()
+    private val delivered = AtomicLong()
+    private val dropped = AtomicLong()
+    private val copied = AtomicLong()
+    private val queueDepth = AtomicInteger()
+    private val maxQueueDepth = AtomicInteger()
+
+    val producedCount: Long
+        get() = produced.get()
+
+    val deliveredCount: Long
+        get() = delivered.get()
+
+    val droppedCount: Long
+        get() = dropped.get()
+
+    /** Bytes written into frame buffers, for comparing the cost of copy strategies. */
+    val bytesCopied: Long
+        get() = copied.get()
+
+    val currentQueueDepth: Int
+        get() = queueDepth.get()
+
+    val peakQueueDepth: Int
+        get() = maxQueueDepth.get()
+
+    internal fun onProduced() {
+        produced.incrementAndGet()
+    }
+
+    internal fun onDelivered() {
+        delivered.incrementAndGet()
+    }
+
+    internal fun onDropped() {
+        dropped.incrementAndGet()
+    }
+
+    internal fun onCopied(bytes: Int) {
+        copied.addAndGet(bytes.toLong())
+    }
+
+    internal fun onQueueDepth(depth: Int) {
+        queueDepth.set(depth)
+        while (true) {
+            val max = maxQueueDepth.get()
+            if (depth <= max || maxQueueDepth.compareAndSet(max, depth)) {
+                break
+            }
+        }
+    }
+
+    fun reset() {
+        produced.set(0)
+        delivered.set(0)
+        dropped.set(0)
+        copied.set(0)
+        maxQueueDepth.set(queueDepth.get())
+    }
+
+    override fun toString(): String {
+        return "FrameStats(produced=$producedCount, delivered=$deliveredCount, dropped=$droppedCount, bytesCopied=$bytesCopied, " +
+                "queueDepth=$currentQueueDepth, peakQueueDepth=$peakQueueDepth)"
+    }
+
+}
@@ -0,0 +1,315 @@
+package com.camerakit.frame
+
+import com.camerakit.type.CameraSize
+import com.camerakit.type.FrameFormat
+import com.camerakit.util.YuvConverter
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Copies camera frames into pooled [Frame]s and hands them to [listener] through a
+ * [FrameDispatcher]. For [FrameFormat.YUV_420_888] the planes are copied back to back in plane
+ * order; for [FrameFormat.Y_ONLY] only the luma plane is copied. With a [region] set, only the
+ * cropped and downscaled area is written, as planar I420 (or Y only).
+ *
+ * In [FrameCopyMode.ZERO_COPY] nothing is copied: frames wrap the camera image itself, see
+ * [offerZeroCopy].
+ */
+class FrameStream {
+
+    val stats: FrameStats = FrameStats()
+
+    val governor: FrameGovernor = FrameGovernor()
+
+    var pool: FramePool = FramePool(poolSizeFor(DEFAULT_CAPACITY))
+        private set
+
+    private val defaultExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "FrameStream@${System.currentTimeMillis()}")
+    }
+
+    private var deliveryExecutor: Executor = defaultExecutor
+
+    private var dispatcher: FrameDispatcher =
+            FrameDispatcher(FrameBackpressure.KEEP_LATEST, DEFAULT_CAPACITY, deliveryExecutor, stats).also {
+                it.governor = governor
+            }
+
+    val backpressure: FrameBackpressure
+        get() = dispatcher.policy
+
+    val capacity: Int
+        get() = dispatcher.capacity
+
+    var listener: FrameListener?
+        get() = dispatcher.listener
+        set(listener) {
+            dispatcher.listener = listener
+            if (listener == null) {
+                dispatcher.clear()
+            }
+        }
+
+    @Volatile
+    var format: FrameFormat = FrameFormat.YUV_420_888
+
+    /** Rotation stamped on every frame, normally the preview orientation. */
+    @Volatile
+    var rotation: Int = 0
+
+    val metadata: FrameMetadataCache = FrameMetadataCache()
+
+    /** Upright size of the preview texture, used to map [region] from view coordinates. */
+    @Volatile
+    var textureSize: CameraSize = CameraSize(0, 0)
+
+    /** Width / height of the sensor active array, in buffer orientation. */
+    @Volatile
+    var sensorAspectRatio: Float = 0f
+
+    @Volatile
+    var region: FrameRegion? = null
+        private set
+
+    private val regionMapper = FrameRegionMapper()
+
+    @Volatile
+    var copyMode: FrameCopyMode = FrameCopyMode.COPY
+
+    /**
+     * Zero-copy frames the consumer may hold at once. The camera sets this below its reader's
+     * image limit so it can always acquire, and drop, the next image.
+     */
+    @Volatile
+    internal var zeroCopyLimit: Int = 2
+
+    private val zeroCopyOutstanding = AtomicInteger()
+
+    private var sequence = 0L
+
+    /**
+     * Replaces the backpressure policy. Frames still queued under the old policy are dropped.
+     */
+    @Synchronized
+    fun setBackpressure(policy: FrameBackpressure, capacity: Int = DEFAULT_CAPACITY) {
+        val dispatcher = replaceDispatcher(policy, capacity)
+
+        val poolSize = poolSizeFor(dispatcher.capacity)
+        if (poolSize != pool.maxFrames) {
+            pool.clear()
+            pool = FramePool(poolSize, pool.direct)
+        }
+    }
+
+    /**
+     * Grows the pool so a consumer queueing up to [capacity] frames of its own still leaves the
+     * producer a free buffer. The backpressure policy is left alone.
+     */
+    @Synchronized
+    internal fun ensurePoolCapacity(capacity: Int) {
+        val poolSize = poolSizeFor(Math.max(capacity, dispatcher.capacity))
+        if (poolSize > pool.maxFrames) {
+            pool.clear()
+            pool = FramePool(poolSize, pool.direct)
+        }
+    }
+
+    /**
+     * Crops and downscales frames to [region] before they are copied. Region frames are
+     * written by the native converter, so the pool switches to direct buffers while a region
+     * is set. Pass null to go back to full frames.
+     */
+    @Synchronized
+    fun setRegion(region: FrameRegion?) {
+        this.region = region
+        val direct = region != null
+        if (pool.direct != direct) {
+            pool.clear()
+            pool = FramePool(pool.maxFrames, direct)
+        }
+    }
+
+    /**
+     * Delivers [listener] callbacks on [executor] instead of the stream's own delivery thread.
+     * Callbacks are still serialized. Pass null to go back to the default thread.
+     */
+    @Synchronized
+    fun setCallbackExecutor(executor: Executor?) {
+        deliveryExecutor = executor ?: defaultExecutor
+        replaceDispatcher(dispatcher.policy, dispatcher.capacity)
+    }
+
+    private fun replaceDispatcher(policy: FrameBackpressure, capacity: Int): FrameDispatcher {
+        val old = dispatcher
+        val dispatcher = FrameDispatcher(policy, capacity, deliveryExecutor, stats)
+        dispatcher.listener = old.listener
+        dispatcher.governor = governor
+        this.dispatcher = dispatcher
+        old.close()
+        return dispatcher
+    }
+
+    fun offer(image: FrameImage): Boolean {
+        val dispatcher = dispatcher
+        if (dispatcher.listener == null) {
+            return false
+        }
+        stats.onProduced()
+        val sequence = sequence++
+
+        if (!governor.shouldAccept(dispatcher.isIdle)) {
+            return false
+        }
+
+        val region = region
+        if (region != null && image.planeBuffer(0).isDirect) {
+            return offerRegion(dispatcher, image, region, sequence)
+        }
+
+        val planeCount = when (format) {
+            FrameFormat.YUV_420_888 -> image.planeCount
+            FrameFormat.Y_ONLY -> 1
+        }
+
+        var size = 0
+        for (i in 0 until planeCount) {
+            size += image.planeBuffer(i).remaining()
+        }
+
+        val frame = pool.acquire(size)
+        if (frame == null) {
+            stats.onDropped()
+            return false
+        }
+
+        for (i in 0 until planeCount) {
+            frame.setPlane(i, frame.buffer.position(), image.rowStride(i), image.pixelStride(i))
+            frame.buffer.put(image.planeBuffer(i))
+        }
+        frame.buffer.flip()
+        stats.onCopied(size)
+        frame.width = image.width
+        frame.height = image.height
+        deliver(dispatcher, frame, image, sequence)
+        return true
+    }
+
+    private fun offerRegion(dispatcher: FrameDispatcher, image: FrameImage, region: FrameRegion, sequence: Long): Boolean {
+        val mapper = regionMapper
+        val textureSize = textureSize
+        if (!mapper.map(region, textureSize.width, textureSize.height, rotation, sensorAspectRatio,
+                        image.width, image.height)) {
+            stats.onDropped()
+            return false
+        }
+
+        val output = when (format) {
+            FrameFormat.YUV_420_888 -> YuvConverter.Output.I420
+            FrameFormat.Y_ONLY -> YuvConverter.Output.Y
+        }
+        val dstWidth = mapper.dstWidth
+        val dstHeight = mapper.dstHeight
+        val size = YuvConverter.outputSize(output, dstWidth, dstHeight)
+        val frame = pool.acquire(size)
+        if (frame == null) {
+            stats.onDropped()
+            return false
+        }
+
+        val yRowStride = image.rowStride(0)
+        val hasChroma = output != YuvConverter.Output.Y
+        val uvRowStride = if (hasChroma) image.rowStride(1) else 0
+        val uvPixelStride = if (hasChroma) image.pixelStride(1) else 0
+        val chromaOffset = (mapper.y / 2) * uvRowStride + (mapper.x / 2) * uvPixelStride
+        val converted = YuvConverter.convert(
+                image.planeBuffer(0),
+                if (hasChroma) image.planeBuffer(1) else null,
+                if (hasChroma) image.planeBuffer(2) else null,
+                yRowStride, uvRowStride, uvPixelStride,
+                mapper.width, mapper.height,
+                output, frame.buffer, dstWidth, dstHeight,
+                yOffset = mapper.y * yRowStride + mapper.x,
+                uOffset = if (hasChroma) chromaOffset else -1,
+                vOffset = if (hasChroma) chromaOffset else -1)
+        if (!converted) {
+            stats.onDropped()
+            frame.release()
+            return false
+        }
+        stats.onCopied(size)
+
+        val lumaSize = dstWidth * dstHeight
+        val chromaWidth = (dstWidth + 1) / 2
+        frame.setPlane(0, 0, dstWidth, 1)
+        if (hasChroma) {
+            frame.setPlane(1, lumaSize, chromaWidth, 1)
+            frame.setPlane(2, lumaSize + chromaWidth * ((dstHeight + 1) / 2), chromaWidth, 1)
+        }
+        frame.width = dstWidth
+        frame.height = dstHeight
+        deliver(dispatcher, frame, image, sequence)
+        return true
+    }
+
+    /**
+     * Delivers [image] without copying it. The frame keeps the image open until its last
+     * release, which calls [closeable]. Returns false if the frame was not taken, in which case
+     * the caller still owns the image. A [region] is not applied to zero-copy frames.
+     */
+    fun offerZeroCopy(image: FrameImage, closeable: AutoCloseable): Boolean {
+        val dispatcher = dispatcher
+        if (dispatcher.listener == null) {
+            return false
+        }
+        stats.onProduced()
+        val sequence = sequence++
+
+        if (!governor.shouldAccept(dispatcher.isIdle)) {
+            return false
+        }
+
+        if (zeroCopyOutstanding.incrementAndGet() > zeroCopyLimit) {
+            zeroCopyOutstanding.decrementAndGet()
+            stats.onDropped()
+            return false
+        }
+
+        val planeCount = when (format) {
+            FrameFormat.YUV_420_888 -> image.planeCount
+            FrameFormat.Y_ONLY -> 1
+        }
+        val frame = Frame.wrap(image, planeCount, AutoCloseable {
+            zeroCopyOutstanding.decrementAndGet()
+            closeable.close()
+        })
+        frame.width = image.width
+        frame.height = image.height
+        deliver(dispatcher, frame, image, sequence)
+        return true
+    }
+
+    private fun deliver(dispatcher: FrameDispatcher, frame: Frame, image: FrameImage, sequence: Long) {
+        frame.format = format
+        frame.timestamp = image.timestamp
+        frame.sequence = sequence
+        frame.rotation = rotation
+        metadata.fill(frame)
+        dispatcher.dispatch(frame)
+    }
+
+    fun release() {
+        dispatcher.close()
+        defaultExecutor.shutdown()
+        pool.clear()
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 2
+
+        // queued frames, plus one being delivered and one being filled by the producer
+        private fun poolSizeFor(capacity: Int): Int = capacity + 2
+    }
+
+}
@@ -0,0 +1,6 @@
+package com.camerakit.type
+
+enum class FrameFormat {
+    YUV_420_888,
+    Y_ONLY;
+}
@@ -0,0 +1,8 @@
+package com.camerakit.type
+
+enum class PhotoRotation {
+    /** The JPEG is decoded, rotated upright and re-encoded. Works with viewers that ignore EXIF. */
+    PIXELS,
+    /** The camera records the rotation in the JPEG orientation tag; no re-encode. */
+    METADATA;
+}
@@ -0,0 +1,9 @@
+package com.camerakit.type
+
+import java.io.File
+
+/**
+ * Where and when a photo written by a `capturePhoto` sink ended up. [file] is null when the
+ * photo was written to a caller-provided channel or stream.
+ */
+data class SavedPhoto(val file: File?, val size: Long, val timestamp: Long)
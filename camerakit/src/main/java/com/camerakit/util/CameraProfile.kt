@@ -0,0 +1,104 @@
+package com.camerakit.util
+
+import com.camerakit.api.CameraAttributes
+import com.camerakit.type.CameraFacing
+import com.camerakit.type.CameraFlash
+import com.camerakit.type.CameraSize
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * What a camera reported on an earlier run, together with the preview, photo and analysis sizes
+ * chosen for it. [configKey] describes the inputs the sizes were chosen from; the sizes only
+ * apply while it is unchanged.
+ */
+class CameraProfile(override val id: String,
+                    override val facing: CameraFacing,
+                    override val sensorOrientation: Int,
+                    override val previewSizes: Array<CameraSize>,
+                    override val photoSizes: Array<CameraSize>,
+                    override val photoStallDurations: LongArray,
+                    override val flashes: Array<CameraFlash>,
+                    val configKey: String,
+                    val previewSize: CameraSize,
+                    val photoSize: CameraSize,
+                    val analysisSize: CameraSize) : CameraAttributes {
+
+    /** Whether the live [attributes] report exactly the capabilities this profile was built from. */
+    fun matches(attributes: CameraAttributes): Boolean {
+        return attributes.id == id
+                && attributes.facing == facing
+                && attributes.sensorOrientation == sensorOrientation
+                && attributes.previewSizes.contentEquals(previewSizes)
+                && attributes.photoSizes.contentEquals(photoSizes)
+                && attributes.photoStallDurations.contentEquals(photoStallDurations)
+                && attributes.flashes.contentEquals(flashes)
+    }
+
+    fun toJson(): String {
+        return JSONObject()
+                .put("version", VERSION)
+                .put("id", id)
+                .put("facing", facing.name)
+                .put("sensorOrientation", sensorOrientation)
+                .put("previewSizes", sizesToJson(previewSizes))
+                .put("photoSizes", sizesToJson(photoSizes))
+                .put("photoStallDurations", JSONArray().apply { photoStallDurations.forEach { put(it) } })
+                .put("flashes", JSONArray().apply { flashes.forEach { put(it.name) } })
+                .put("configKey", configKey)
+                .put("previewSize", sizesToJson(arrayOf(previewSize)))
+                .put("photoSize", sizesToJson(arrayOf(photoSize)))
+                .put("analysisSize", sizesToJson(arrayOf(analysisSize)))
+                .toString()
+    }
+
+    companion object {
+
+        private const val VERSION = 1
+
+        fun from(attributes: CameraAttributes, configKey: String,
+                 previewSize: CameraSize, photoSize: CameraSize, analysisSize: CameraSize): CameraProfile {
+            return CameraProfile(attributes.id, attributes.facing, attributes.sensorOrientation,
+                    attributes.previewSizes, attributes.photoSizes, attributes.photoStallDurations,
+                    attributes.flashes, configKey, previewSize, photoSize, analysisSize)
+        }
+
+        /** Parses a profile written by [toJson]; null if it was written by another version. */
+        fun fromJson(json: String): CameraProfile? {
+            val obj = JSONObject(json)
+            if (obj.optInt("version") != VERSION) {
+                return null
+            }
+            val stalls = obj.getJSONArray("photoStallDurations")
+            val flashes = obj.getJSONArray("flashes")
+            return CameraProfile(
+                    obj.getString("id"),
+                    CameraFacing.valueOf(obj.getString("facing")),
+                    obj.getInt("sensorOrientation"),
+                    sizesFromJson(obj.getJSONArray("previewSizes")),
+                    sizesFromJson(obj.getJSONArray("photoSizes")),
+                    LongArray(stalls.length()) { stalls.getLong(it) },
+                    Array(flashes.length()) { CameraFlash.valueOf(flashes.getString(it)) },
+                    obj.getString("configKey"),
+                    sizesFromJson(obj.getJSONArray("previewSize"))[0],
+                    sizesFromJson(obj.getJSONArray("photoSize"))[0],
+                    sizesFromJson(obj.getJSONArray("analysisSize"))[0])
+        }
+
+        // sizes are stored flat as [w0, h0, w1, h1, ...]
+        private fun sizesToJson(sizes: Array<CameraSize>): JSONArray {
+            val array = JSONArray()
+            for (size in sizes) {
+                array.put(size.width)
+                array.put(size.height)
+            }
+            return array
+        }
+
+        private fun sizesFromJson(array: JSONArray): Array<CameraSize> {
+            return Array(array.length() / 2) { CameraSize(array.getInt(it * 2), array.getInt(it * 2 + 1)) }
+        }
+
+    }
+
+}
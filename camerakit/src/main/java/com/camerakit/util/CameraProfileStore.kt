@@ -0,0 +1,73 @@
+package com.camerakit.util
+
+import android.content.Context
+import android.os.Build
+import android.util.Log
+import com.camerakit.type.CameraFacing
+import org.json.JSONException
+
+/**
+ * Keeps one [CameraProfile] per camera ID in shared preferences, keyed by the build fingerprint
+ * so a system update or a different device never sees another build's profile. Profiles of
+ * other builds are dropped on the next save.
+ */
+class CameraProfileStore(context: Context) {
+
+    private val preferences = context.applicationContext
+            .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+
+    private val prefix = Build.FINGERPRINT + "/"
+
+    @Synchronized
+    fun load(facing: CameraFacing): CameraProfile? {
+        val cameraId = preferences.getString(facingKey(facing), null) ?: return null
+        val json = preferences.getString(profileKey(cameraId), null) ?: return null
+        val profile = try {
+            CameraProfile.fromJson(json)
+        } catch (e: JSONException) {
+            Log.d("CameraProfileStore", "unreadable profile for camera $cameraId: " + e.message)
+            null
+        } catch (e: IllegalArgumentException) {
+            Log.d("CameraProfileStore", "unreadable profile for camera $cameraId: " + e.message)
+            null
+        }
+        if (profile == null || profile.facing != facing) {
+            remove(facing)
+            return null
+        }
+        return profile
+    }
+
+    /** Writes [profile] in the background; it is visible to [load] immediately. */
+    @Synchronized
+    fun save(profile: CameraProfile) {
+        val editor = preferences.edit()
+        for (key in preferences.all.keys) {
+            if (!key.startsWith(prefix)) {
+                editor.remove(key)
+            }
+        }
+        editor.putString(facingKey(profile.facing), profile.id)
+                .putString(profileKey(profile.id), profile.toJson())
+                .apply()
+    }
+
+    @Synchronized
+    fun remove(facing: CameraFacing) {
+        val cameraId = preferences.getString(facingKey(facing), null)
+        val editor = preferences.edit().remove(facingKey(facing))
+        if (cameraId != null) {
+            editor.remove(profileKey(cameraId))
+        }
+        editor.apply()
+    }
+
+    private fun facingKey(facing: CameraFacing): String = prefix + "facing/" + facing.name
+
+    private fun profileKey(cameraId: String): String = prefix + "camera/" + cameraId
+
+    companion object {
+        private const val PREFERENCES_NAME = "camerakit_profiles"
+    }
+
+}
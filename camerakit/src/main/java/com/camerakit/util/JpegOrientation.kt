@@ -0,0 +1,43 @@
+package com.camerakit.util
+
+/**
+ * Tags a JPEG with an EXIF orientation, the way the camera does for
+ * [com.camerakit.type.PhotoRotation.METADATA], for JPEGs encoded by the library itself. A
+ * minimal EXIF segment is inserted after the start-of-image marker; the image data is not
+ * touched.
+ */
+object JpegOrientation {
+
+    // APP1 payload: "Exif\0\0", big-endian TIFF header, one IFD with a single SHORT entry
+    private const val SEGMENT_LENGTH = 2 + 6 + 8 + 2 + 12 + 4
+
+    /** Returns [jpeg] tagged with [degrees] of clockwise rotation, or [jpeg] itself for 0. */
+    fun withOrientation(jpeg: ByteArray, degrees: Int): ByteArray {
+        val orientation = when ((degrees % 360 + 360) % 360) {
+            0 -> return jpeg
+            90 -> 6
+            180 -> 3
+            270 -> 8
+            else -> throw IllegalArgumentException("degrees=$degrees")
+        }
+        if (jpeg.size < 2 || jpeg[0] != 0xFF.toByte() || jpeg[1] != 0xD8.toByte()) {
+            throw IllegalArgumentException("not a JPEG")
+        }
+
+        val segment = byteArrayOf(
+                0xFF.toByte(), 0xE1.toByte(), 0, SEGMENT_LENGTH.toByte(),
+                'E'.toByte(), 'x'.toByte(), 'i'.toByte(), 'f'.toByte(), 0, 0,
+                'M'.toByte(), 'M'.toByte(), 0, 0x2A, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, orientation.toByte(), 0, 0,
+                0, 0, 0, 0)
+
+        val tagged = ByteArray(jpeg.size + segment.size)
+        tagged[0] = jpeg[0]
+        tagged[1] = jpeg[1]
+        System.arraycopy(segment, 0, tagged, 2, segment.size)
+        System.arraycopy(jpeg, 2, tagged, 2 + segment.size, jpeg.size - 2)
+        return tagged
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.camerakit.util
+
+/**
+ * Running latency statistics over the most recent [capacity] samples, in nanoseconds.
+ * Recording never allocates; percentiles are computed on demand from the retained window.
+ */
+class LatencyStats(private val capacity: Int = DEFAULT_CAPACITY) {
+
+    private val samples = LongArray(capacity)
+    private val sorted = LongArray(capacity)
+    private var next = 0
+    private var retained = 0
+
+    var count: Long = 0
+        private set
+        @Synchronized get
+
+    var lastNanos: Long = 0
+        private set
+        @Synchronized get
+
+    var minNanos: Long = 0
+        private set
+        @Synchronized get
+
+    var maxNanos: Long = 0
+        private set
+        @Synchronized get
+
+    private var totalNanos: Long = 0
+
+    val meanNanos: Long
+        @Synchronized get() = if (count == 0L) 0L else totalNanos / count
+
+    @Synchronized
+    fun record(nanos: Long) {
+        samples[next] = nanos
+        next = (next + 1) % capacity
+        retained = Math.min(retained + 1, capacity)
+        if (count == 0L || nanos < minNanos) {
+            minNanos = nanos
+        }
+        if (count == 0L || nanos > maxNanos) {
+            maxNanos = nanos
+        }
+        count++
+        totalNanos += nanos
+        lastNanos = nanos
+    }
+
+    /** [percentile] in 0..100 over the retained window, or 0 if nothing was recorded. */
+    @Synchronized
+    fun percentile(percentile: Double): Long {
+        if (retained == 0) {
+            return 0L
+        }
+        System.arraycopy(samples, 0, sorted, 0, retained)
+        java.util.Arrays.sort(sorted, 0, retained)
+        val rank = Math.ceil(percentile.coerceIn(0.0, 100.0) / 100.0 * retained).toInt() - 1
+        return sorted[rank.coerceIn(0, retained - 1)]
+    }
+
+    @Synchronized
+    fun reset() {
+        next = 0
+        retained = 0
+        count = 0
+        totalNanos = 0
+        lastNanos = 0
+        minNanos = 0
+        maxNanos = 0
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return String.format(java.util.Locale.US,
+                "count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                count, meanNanos / 1e6, percentile(50.0) / 1e6, percentile(90.0) / 1e6,
+                percentile(99.0) / 1e6, maxNanos / 1e6)
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 256
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.camerakit.util
+
+import com.camerakit.type.CameraSize
+
+/**
+ * Chooses the photo size from the JPEG sizes the camera actually supports. Sizes are in sensor
+ * orientation, as is the preview size passed alongside them.
+ */
+interface PhotoSizePolicy {
+
+    /**
+     * Returns the chosen size with a short reason for the log, or null if no option satisfies
+     * the policy. [options] is never empty.
+     */
+    fun select(options: List<PhotoSizeOption>, previewSize: CameraSize): PhotoSizeChoice?
+
+    /** Keeps only sizes within [tolerance] of the preview aspect ratio, then asks [next]. */
+    class MatchAspect(private val next: PhotoSizePolicy,
+                      private val tolerance: Float = DEFAULT_ASPECT_TOLERANCE) : PhotoSizePolicy {
+
+        override fun select(options: List<PhotoSizeOption>, previewSize: CameraSize): PhotoSizeChoice? {
+            val aspect = previewSize.aspectRatio()
+            val matching = options.filter { Math.abs(it.size.aspectRatio() - aspect) <= tolerance * aspect }
+            if (matching.isEmpty()) {
+                return null
+            }
+            val choice = next.select(matching, previewSize) ?: return null
+            return choice.copy(reason = "aspect ${previewSize.width}:${previewSize.height}, ${choice.reason}")
+        }
+
+    }
+
+    /** The size whose pixel count is closest to [megapixels]. */
+    class Megapixels(private val megapixels: Float) : PhotoSizePolicy {
+
+        override fun select(options: List<PhotoSizeOption>, previewSize: CameraSize): PhotoSizeChoice? {
+            val area = (megapixels * 1000000).toLong()
+            val best = options.minBy { Math.abs(area - it.size.area()) } ?: return null
+            return PhotoSizeChoice(best.size, "closest to ${megapixels}MP")
+        }
+
+    }
+
+    /**
+     * The largest size whose decoded bitmap fits in [bytes], at [bytesPerPixel] (4 for
+     * ARGB_8888), then asks [next] among sizes of that area or smaller if given.
+     */
+    class MemoryBudget(private val bytes: Long,
+                       private val bytesPerPixel: Int = 4,
+                       private val next: PhotoSizePolicy? = null) : PhotoSizePolicy {
+
+        override fun select(options: List<PhotoSizeOption>, previewSize: CameraSize): PhotoSizeChoice? {
+            val fitting = options.filter { it.size.area().toLong() * bytesPerPixel <= bytes }
+            if (fitting.isEmpty()) {
+                return null
+            }
+            val choice = when (next) {
+                null -> fitting.maxBy { it.size.area() }?.let { PhotoSizeChoice(it.size, "largest") }
+                else -> next.select(fitting, previewSize)
+            } ?: return null
+            return choice.copy(reason = "${choice.reason} within ${bytes / 1000000}MB budget")
+        }
+
+    }
+
+    /**
+     * The size with the shortest JPEG stall duration, so back-to-back shots are fastest; among
+     * equally fast sizes the largest wins.
+     */
+    class FastestStall : PhotoSizePolicy {
+
+        override fun select(options: List<PhotoSizeOption>, previewSize: CameraSize): PhotoSizeChoice? {
+            val fastest = options.minWith(Comparator { a, b ->
+                when {
+                    a.stallDurationNanos != b.stallDurationNanos ->
+                        a.stallDurationNanos.compareTo(b.stallDurationNanos)
+                    else -> b.size.area().compareTo(a.size.area())
+                }
+            }) ?: return null
+            return PhotoSizeChoice(fastest.size, "fastest, stall ${fastest.stallDurationNanos / 1000000}ms")
+        }
+
+    }
+
+    companion object {
+        const val DEFAULT_ASPECT_TOLERANCE = 0.05f
+    }
+
+}
+
+data class PhotoSizeOption(val size: CameraSize, val stallDurationNanos: Long)
+
+data class PhotoSizeChoice(val size: CameraSize, val reason: String)
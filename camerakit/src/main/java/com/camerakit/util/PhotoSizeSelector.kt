@@ -0,0 +1,43 @@
+package com.camerakit.util
+
+import android.util.Log
+import com.camerakit.api.CameraAttributes
+import com.camerakit.type.CameraSize
+
+/**
+ * Applies a [PhotoSizePolicy] to a camera's JPEG sizes and remembers the decision per camera
+ * and preview size, so reopening the camera does not re-run the policy. Changing [policy]
+ * forgets all decisions.
+ */
+class PhotoSizeSelector(policy: PhotoSizePolicy) {
+
+    var policy: PhotoSizePolicy = policy
+        @Synchronized set(policy) {
+            field = policy
+            decisions.clear()
+        }
+
+    private val decisions = HashMap<String, PhotoSizeChoice>()
+
+    @Synchronized
+    fun select(attributes: CameraAttributes, previewSize: CameraSize): CameraSize {
+        val key = "${attributes.id}/${previewSize.width}x${previewSize.height}"
+        decisions[key]?.let { return it.size }
+
+        val sizes = attributes.photoSizes
+        if (sizes.isEmpty()) {
+            Log.d("PhotoSizeSelector", "camera ${attributes.id} reports no photo sizes, using preview size")
+            return previewSize
+        }
+        val stalls = attributes.photoStallDurations
+        val options = sizes.mapIndexed { i, size -> PhotoSizeOption(size, stalls.getOrElse(i) { 0L }) }
+
+        val choice = policy.select(options, previewSize)
+                ?: PhotoSizeChoice(CameraSizeCalculator(sizes).findClosestSizeMatchingArea(previewSize.area()),
+                        "policy matched nothing, closest to preview area")
+        Log.d("PhotoSizeSelector", "camera ${attributes.id} photoSize=${choice.size.width}*${choice.size.height}: ${choice.reason}")
+        decisions[key] = choice
+        return choice.size
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.camerakit.util
+
+import java.util.ArrayDeque
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Bounded executor for work on captured photos: rotation, encoding and saving. At most
+ * [concurrency] tasks run at once and at most [queueSize] wait; when the queue is full the
+ * [rejection] policy decides which task is turned away, and that task's `onRejected` runs on
+ * the submitting thread. Nothing ever runs on the submitting thread otherwise, so the camera
+ * thread stays free for camera work.
+ */
+class PostProcessor(concurrency: Int = 1,
+                    queueSize: Int = DEFAULT_QUEUE_SIZE,
+                    rejection: Rejection = Rejection.REJECT_NEW) {
+
+    enum class Rejection {
+        /** The task being submitted is rejected. */
+        REJECT_NEW,
+        /** The longest-waiting queued task is rejected to make room. */
+        DROP_OLDEST;
+    }
+
+    var concurrency: Int = concurrency
+        private set
+
+    var queueSize: Int = queueSize
+        private set
+
+    var rejection: Rejection = rejection
+        private set
+
+    /** Time tasks spent queued before a worker picked them up. */
+    val queueWait: LatencyStats = LatencyStats()
+
+    /** Time tasks spent running. */
+    val processing: LatencyStats = LatencyStats()
+
+    var rejectedCount: Long = 0
+        private set
+        @Synchronized get
+
+    private val threadCount = AtomicInteger()
+    private val executor: ExecutorService = Executors.newCachedThreadPool { runnable ->
+        Thread(runnable, "PostProcessor-${threadCount.incrementAndGet()}")
+    }
+
+    private val queue = ArrayDeque<Task>()
+    private var running = 0
+    private var shutdown = false
+
+    @Synchronized
+    fun configure(concurrency: Int, queueSize: Int, rejection: Rejection) {
+        if (concurrency < 1 || queueSize < 0) {
+            throw IllegalArgumentException("concurrency=$concurrency queueSize=$queueSize")
+        }
+        this.concurrency = concurrency
+        this.queueSize = queueSize
+        this.rejection = rejection
+        startWorkers()
+    }
+
+    /**
+     * Queues [task]. If this or an older task has to be turned away, its [onRejected] is called
+     * instead, before this method returns. An unbounded task is queued even when the queue is
+     * full and is only turned away after [shutdown]; it is meant for work whose size the caller
+     * already bounds, such as the shots of a burst.
+     */
+    fun execute(onRejected: (e: RejectedExecutionException) -> Unit = {}, bounded: Boolean = true, task: () -> Unit) {
+        var rejected: Task? = null
+        synchronized(this) {
+            val submitted = Task(task, onRejected)
+            if (shutdown) {
+                rejected = submitted
+            } else if (running < concurrency || queue.size < queueSize || !bounded) {
+                queue.addLast(submitted)
+                startWorkers()
+            } else when (rejection) {
+                Rejection.REJECT_NEW -> rejected = submitted
+                Rejection.DROP_OLDEST -> {
+                    rejected = queue.pollFirst()
+                    queue.addLast(submitted)
+                    if (rejected == null) {
+                        // a zero-length queue has nothing to drop
+                        queue.removeLast()
+                        rejected = submitted
+                    }
+                }
+            }
+            if (rejected != null) {
+                rejectedCount++
+            }
+        }
+        rejected?.let { it.onRejected(RejectedExecutionException("post-processing queue full")) }
+    }
+
+    fun shutdown() {
+        val pending: List<Task>
+        synchronized(this) {
+            shutdown = true
+            pending = ArrayList(queue)
+            queue.clear()
+        }
+        executor.shutdown()
+        for (task in pending) {
+            task.onRejected(RejectedExecutionException("post-processor shut down"))
+        }
+    }
+
+    // called with the lock held
+    private fun startWorkers() {
+        while (running < concurrency && queue.isNotEmpty()) {
+            running++
+            executor.execute(this::work)
+        }
+    }
+
+    private fun work() {
+        while (true) {
+            val task = synchronized(this) {
+                val task = if (running <= concurrency) queue.pollFirst() else null
+                if (task == null) {
+                    running--
+                }
+                task
+            } ?: return
+
+            val start = System.nanoTime()
+            queueWait.record(start - task.submitTime)
+            try {
+                task.task()
+            } catch (e: Exception) {
+                e.printStackTrace()
+            } finally {
+                processing.record(System.nanoTime() - start)
+            }
+        }
+    }
+
+    @Synchronized
+    override fun toString(): String {
+        return "PostProcessor(concurrency=$concurrency, queued=${queue.size}/$queueSize, rejected=$rejectedCount, " +
+                "queueWait=[$queueWait], processing=[$processing])"
+    }
+
+    private class Task(val task: () -> Unit, val onRejected: (e: RejectedExecutionException) -> Unit) {
+        val submitTime: Long = System.nanoTime()
+    }
+
+    companion object {
+        const val DEFAULT_QUEUE_SIZE = 4
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.camerakit.util
+
+import com.camerakit.frame.Frame
+import com.camerakit.type.FrameFormat
+import java.nio.ByteBuffer
+
+/**
+ * SIMD-accelerated YUV_420_888 conversion and downscaling backed by camerakit-core. Output is
+ * written into a caller-provided direct [ByteBuffer] starting at its position; the position
+ * is left unchanged. Downscaling by exactly 2 uses a box filter, other ratios sample nearest.
+ */
+object YuvConverter {
+
+    // ordinals match YuvConverter::Output in YuvConverter.hpp
+    enum class Output {
+        I420,
+        NV21,
+        RGBA,
+        Y;
+    }
+
+    val simdAvailable: Boolean
+        get() = nativeIsSimdAvailable()
+
+    /** Disable to force the scalar reference kernels, e.g. to compare output. */
+    var simdEnabled: Boolean
+        get() = nativeIsSimdEnabled()
+        set(enabled) = nativeSetSimdEnabled(enabled)
+
+    fun outputSize(output: Output, width: Int, height: Int): Int {
+        val luma = width * height
+        val chroma = ((width + 1) / 2) * ((height + 1) / 2)
+        return when (output) {
+            Output.I420, Output.NV21 -> luma + 2 * chroma
+            Output.RGBA -> luma * 4
+            Output.Y -> luma
+        }
+    }
+
+    fun convert(frame: Frame,
+                output: Output,
+                dst: ByteBuffer,
+                dstWidth: Int = frame.width,
+                dstHeight: Int = frame.height): Boolean {
+        if (frame.format == FrameFormat.Y_ONLY && output != Output.Y) {
+            return false
+        }
+
+        val hasChroma = frame.planeCount >= 3
+        val uOffset = if (hasChroma) frame.planeOffset(1) else -1
+        val vOffset = if (hasChroma) frame.planeOffset(2) else -1
+        val uvRowStride = if (hasChroma) frame.rowStride(1) else 0
+        val uvPixelStride = if (hasChroma) frame.pixelStride(1) else 0
+
+        if (frame.isZeroCopy) {
+            return convert(frame.planeBuffer(0),
+                    if (hasChroma) frame.planeBuffer(1) else null,
+                    if (hasChroma) frame.planeBuffer(2) else null,
+                    frame.rowStride(0), uvRowStride, uvPixelStride,
+                    frame.width, frame.height, output, dst, dstWidth, dstHeight)
+        }
+
+        val buffer = frame.buffer
+        return if (buffer.isDirect) {
+            nativeConvertBuffers(buffer, frame.planeOffset(0),
+                    if (hasChroma) buffer else null, uOffset,
+                    if (hasChroma) buffer else null, vOffset,
+                    frame.rowStride(0), uvRowStride, uvPixelStride,
+                    frame.width, frame.height, output.ordinal,
+                    checkDirect(dst), dst.position(), dstWidth, dstHeight)
+        } else {
+            val base = buffer.arrayOffset()
+            nativeConvertArray(buffer.array(), base + frame.planeOffset(0),
+                    if (hasChroma) base + uOffset else -1,
+                    if (hasChroma) base + vOffset else -1,
+                    frame.rowStride(0), uvRowStride, uvPixelStride,
+                    frame.width, frame.height, output.ordinal,
+                    checkDirect(dst), dst.position(), dstWidth, dstHeight)
+        }
+    }
+
+    /**
+     * Converts planes taken straight from an `Image`. All buffers must be direct; [u] and [v]
+     * may be null when [output] is [Output.Y]. Each plane starts at its buffer's position
+     * unless an explicit offset is given, which is how a crop of the source is selected.
+     */
+    fun convert(y: ByteBuffer, u: ByteBuffer?, v: ByteBuffer?,
+                yRowStride: Int, uvRowStride: Int, uvPixelStride: Int,
+                width: Int, height: Int,
+                output: Output,
+                dst: ByteBuffer, dstWidth: Int = width, dstHeight: Int = height,
+                yOffset: Int = y.position(),
+                uOffset: Int = u?.position() ?: -1,
+                vOffset: Int = v?.position() ?: -1): Boolean {
+        return nativeConvertBuffers(checkDirect(y), yOffset,
+                u?.let { checkDirect(it) }, uOffset,
+                v?.let { checkDirect(it) }, vOffset,
+                yRowStride, uvRowStride, uvPixelStride,
+                width, height, output.ordinal,
+                checkDirect(dst), dst.position(), dstWidth, dstHeight)
+    }
+
+    private fun checkDirect(buffer: ByteBuffer): ByteBuffer {
+        if (!buffer.isDirect) {
+            throw IllegalArgumentException("YuvConverter requires a direct ByteBuffer")
+        }
+        return buffer
+    }
+
+    // ---
+
+    private external fun nativeConvertBuffers(y: ByteBuffer, yOffset: Int,
+                                              u: ByteBuffer?, uOffset: Int,
+                                              v: ByteBuffer?, vOffset: Int,
+                                              yRowStride: Int, uvRowStride: Int, uvPixelStride: Int,
+                                              width: Int, height: Int, output: Int,
+                                              dst: ByteBuffer, dstOffset: Int,
+                                              dstWidth: Int, dstHeight: Int): Boolean
+
+    private external fun nativeConvertArray(src: ByteArray, yOffset: Int, uOffset: Int, vOffset: Int,
+                                            yRowStride: Int, uvRowStride: Int, uvPixelStride: Int,
+                                            width: Int, height: Int, output: Int,
+                                            dst: ByteBuffer, dstOffset: Int,
+                                            dstWidth: Int, dstHeight: Int): Boolean
+
+    private external fun nativeSetSimdEnabled(enabled: Boolean)
+
+    private external fun nativeIsSimdEnabled(): Boolean
+
+    private external fun nativeIsSimdAvailable(): Boolean
+
+    init {
+        System.loadLibrary("camerakit")
+    }
+
+}
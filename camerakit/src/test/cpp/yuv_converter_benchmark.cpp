@@ -0,0 +1,65 @@
+// Host benchmark of YuvConverter::Convert, SIMD against scalar, for the frame sizes analysis
+// typically runs at. Prints the median time per conversion over a few hundred runs.
+
+#include "camerakit/YuvConverter.hpp"
+
+#include <algorithm>
+#include <chrono>
+#include <stdio.h>
+#include <vector>
+
+using camerakit::YuvConverter;
+
+static double MedianMicros(const camerakit::YuvImage& image, YuvConverter::Output output,
+                           int dstWidth, int dstHeight, bool simd) {
+    YuvConverter::SetSimdEnabled(simd);
+    std::vector<uint8_t> dst(YuvConverter::OutputSize(output, dstWidth, dstHeight));
+    std::vector<double> samples;
+    for (int i = 0; i < 300; i++) {
+        auto begin = std::chrono::steady_clock::now();
+        YuvConverter::Convert(image, output, dst.data(), dst.size(), dstWidth, dstHeight);
+        auto end = std::chrono::steady_clock::now();
+        samples.push_back(std::chrono::duration<double, std::micro>(end - begin).count());
+    }
+    std::nth_element(samples.begin(), samples.begin() + samples.size() / 2, samples.end());
+    return samples[samples.size() / 2];
+}
+
+int main() {
+    struct Case {
+        int width, height, dstWidth, dstHeight;
+    };
+    const Case cases[] = {
+            {640, 480, 640, 480},
+            {1280, 720, 640, 360},
+            {1920, 1080, 1920, 1080},
+            {1920, 1080, 480, 270},
+    };
+    static const YuvConverter::Output outputs[] = {
+            YuvConverter::OUTPUT_I420, YuvConverter::OUTPUT_NV21, YuvConverter::OUTPUT_RGBA
+    };
+    static const char* const names[] = {"I420", "NV21", "RGBA"};
+
+    printf("simd available: %s\n", YuvConverter::IsSimdAvailable() ? "yes" : "no");
+    printf("%-22s %-5s %10s %10s %8s\n", "size", "out", "scalar us", "simd us", "speedup");
+    for (const Case& c : cases) {
+        // semi-planar chroma with row padding, like most camera HALs deliver
+        int rowStride = (c.width + 63) / 64 * 64;
+        std::vector<uint8_t> y((size_t) rowStride * c.height, 100);
+        std::vector<uint8_t> uv((size_t) rowStride * ((c.height + 1) / 2) + 1, 128);
+        for (size_t i = 0; i < y.size(); i++) {
+            y[i] = (uint8_t) (i * 7);
+        }
+        camerakit::YuvImage image = YuvConverter::Image(y.data(), uv.data(), uv.data() + 1,
+                                                        rowStride, rowStride, 2, c.width, c.height);
+        for (int i = 0; i < 3; i++) {
+            double scalar = MedianMicros(image, outputs[i], c.dstWidth, c.dstHeight, false);
+            double simd = MedianMicros(image, outputs[i], c.dstWidth, c.dstHeight, true);
+            char size[32];
+            snprintf(size, sizeof(size), "%dx%d->%dx%d", c.width, c.height, c.dstWidth, c.dstHeight);
+            printf("%-22s %-5s %10.1f %10.1f %7.2fx\n", size, names[i], scalar, simd, scalar / simd);
+        }
+    }
+    YuvConverter::SetSimdEnabled(true);
+    return 0;
+}
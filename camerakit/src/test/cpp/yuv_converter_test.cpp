@@ -0,0 +1,136 @@
+// SIMD vs scalar parity for YuvConverter::Convert. Every output format is converted twice, once
+// with the SIMD kernels and once with the scalar reference, over odd, even and padded widths,
+// interleaved and planar chroma, and copy, halving and nearest-scaling destinations. Each image
+// is placed at the very end of its allocation so out-of-bounds reads and writes show up under
+// AddressSanitizer.
+
+#include "camerakit/YuvConverter.hpp"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+
+using camerakit::YuvConverter;
+using camerakit::YuvImage;
+
+static int failures = 0;
+
+struct Source {
+    std::vector<uint8_t> y;
+    std::vector<uint8_t> uv;
+    YuvImage image;
+};
+
+// builds a source whose planes end exactly where their last sample is
+static Source MakeSource(int width, int height, int rowPadding, int uvPixelStride, unsigned seed) {
+    Source source;
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    int yRowStride = width + rowPadding;
+    int uvRowStride = chromaWidth * uvPixelStride + rowPadding;
+
+    source.y.resize((size_t) (height - 1) * yRowStride + width);
+    srand(seed);
+    for (size_t i = 0; i < source.y.size(); i++) {
+        source.y[i] = (uint8_t) rand();
+    }
+
+    size_t chromaExtent = (size_t) (chromaHeight - 1) * uvRowStride + (size_t) (chromaWidth - 1) * uvPixelStride + 1;
+    const uint8_t* u;
+    const uint8_t* v;
+    if (uvPixelStride == 2) {
+        // NV12-style interleaving: v trails u by one byte and ends the allocation
+        source.uv.resize(chromaExtent + 1);
+        u = source.uv.data();
+        v = u + 1;
+    } else {
+        source.uv.resize(chromaExtent * 2);
+        u = source.uv.data();
+        v = u + chromaExtent;
+    }
+    for (size_t i = 0; i < source.uv.size(); i++) {
+        source.uv[i] = (uint8_t) rand();
+    }
+
+    source.image = YuvConverter::Image(source.y.data(), u, v, yRowStride, uvRowStride, uvPixelStride, width, height);
+    return source;
+}
+
+static std::vector<uint8_t> Run(const Source& source, YuvConverter::Output output, int dstWidth, int dstHeight,
+                                bool simd) {
+    YuvConverter::SetSimdEnabled(simd);
+    std::vector<uint8_t> dst(YuvConverter::OutputSize(output, dstWidth, dstHeight));
+    if (!YuvConverter::Convert(source.image, output, dst.data(), dst.size(), dstWidth, dstHeight)) {
+        dst.clear();
+    }
+    return dst;
+}
+
+static void Check(int width, int height, int rowPadding, int uvPixelStride, int dstWidth, int dstHeight) {
+    static const YuvConverter::Output outputs[] = {
+            YuvConverter::OUTPUT_I420, YuvConverter::OUTPUT_NV21, YuvConverter::OUTPUT_RGBA, YuvConverter::OUTPUT_Y
+    };
+    static const char* const names[] = {"I420", "NV21", "RGBA", "Y"};
+
+    Source source = MakeSource(width, height, rowPadding, uvPixelStride, (unsigned) (width * 31 + height));
+    for (int i = 0; i < 4; i++) {
+        std::vector<uint8_t> scalar = Run(source, outputs[i], dstWidth, dstHeight, false);
+        std::vector<uint8_t> simd = Run(source, outputs[i], dstWidth, dstHeight, true);
+        if (scalar.empty() || simd.empty() || scalar != simd) {
+            failures++;
+            fprintf(stderr, "FAIL %s %dx%d padding=%d pixelStride=%d -> %dx%d%s\n", names[i], width, height,
+                    rowPadding, uvPixelStride, dstWidth, dstHeight, scalar.empty() || simd.empty() ? " (rejected)" : "");
+        }
+    }
+}
+
+static void CheckRejectsTooSmallDestination() {
+    Source source = MakeSource(33, 17, 0, 2, 7);
+    std::vector<uint8_t> dst(YuvConverter::OutputSize(YuvConverter::OUTPUT_RGBA, 33, 17) - 1);
+    if (YuvConverter::Convert(source.image, YuvConverter::OUTPUT_RGBA, dst.data(), dst.size(), 33, 17)) {
+        failures++;
+        fprintf(stderr, "FAIL accepted a destination one byte short\n");
+    }
+}
+
+int main() {
+    if (!YuvConverter::IsSimdAvailable()) {
+        printf("SIMD kernels not compiled in; checking the scalar path against itself\n");
+    }
+
+    const int widths[] = {1, 2, 3, 15, 16, 17, 31, 33, 63, 64, 65, 127, 641};
+    const int heights[] = {1, 2, 3, 17, 48};
+    const int paddings[] = {0, 1, 64};
+    const int pixelStrides[] = {1, 2};
+
+    int cases = 0;
+    for (int width : widths) {
+        for (int height : heights) {
+            for (int padding : paddings) {
+                for (int pixelStride : pixelStrides) {
+                    // straight copy
+                    Check(width, height, padding, pixelStride, width, height);
+                    // exact halving
+                    if (width % 2 == 0 && height % 2 == 0 && width >= 2 && height >= 2) {
+                        Check(width, height, padding, pixelStride, width / 2, height / 2);
+                    }
+                    // nearest scaling to an odd size
+                    int dstWidth = width > 2 ? width * 2 / 3 | 1 : width;
+                    int dstHeight = height > 2 ? height * 2 / 3 | 1 : height;
+                    Check(width, height, padding, pixelStride, dstWidth, dstHeight);
+                    cases += 3;
+                }
+            }
+        }
+    }
+    CheckRejectsTooSmallDestination();
+
+    YuvConverter::SetSimdEnabled(true);
+    if (failures > 0) {
+        fprintf(stderr, "%d of %d conversions differ\n", failures, cases * 4);
+        return 1;
+    }
+    printf("OK: %d conversions bit-identical between SIMD and scalar\n", cases * 4);
+    return 0;
+}
@@ -0,0 +1,297 @@
+package com.camerakit
+
+import com.camerakit.CameraPreview.CameraState
+import com.camerakit.api.CameraMetrics
+import com.camerakit.type.CameraFacing
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class CameraLifecycleTest {
+
+    /**
+     * A camera that completes every step at once unless told otherwise, and fails the test on
+     * any call that does not fit its state.
+     */
+    private class FakeCamera : CameraLifecycle.Camera {
+
+        lateinit var lifecycle: CameraLifecycle
+
+        @Volatile
+        var completeOpen = true
+        @Volatile
+        var completePreview = true
+
+        @Volatile
+        var openFacing: CameraFacing? = null
+        @Volatile
+        var previewing = false
+        @Volatile
+        var opens = 0
+        @Volatile
+        var state = CameraState.CAMERA_CLOSED
+        @Volatile
+        var violation: String? = null
+
+        override fun open(facing: CameraFacing) {
+            check(openFacing == null) { "open while $openFacing is open" }
+            openFacing = facing
+            opens++
+            if (completeOpen) {
+                lifecycle.onCameraOpened()
+            }
+        }
+
+        override fun startPreview(): Boolean {
+            check(openFacing != null) { "startPreview while closed" }
+            check(!previewing) { "startPreview while previewing" }
+            previewing = true
+            if (completePreview) {
+                lifecycle.onPreviewStarted()
+            }
+            return true
+        }
+
+        override fun stopPreview() {
+            check(previewing) { "stopPreview while stopped" }
+            previewing = false
+        }
+
+        override fun close() {
+            // also called to undo an open that never completed
+            previewing = false
+            openFacing = null
+        }
+
+        override fun onCameraState(state: CameraState) {
+            this.state = state
+        }
+
+        private fun check(condition: Boolean, message: () -> String) {
+            if (!condition && violation == null) {
+                violation = message()
+            }
+        }
+
+    }
+
+    private enum class HostEvent {
+        START_BACK,
+        START_FRONT,
+        RESUME,
+        PAUSE,
+        STOP,
+        SURFACE_READY;
+    }
+
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+    private val scope = CoroutineScope(SupervisorJob() + executor.asCoroutineDispatcher())
+    private val metrics = CameraMetrics()
+    // completes the fake camera's steps after a delay, like the device and GL threads would
+    private val backend: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        executor.shutdownNow()
+        backend.shutdownNow()
+    }
+
+    @Test
+    fun everyEventSequenceSettlesOnItsTarget() {
+        val events = HostEvent.values()
+        var sequences = listOf(emptyList<HostEvent>())
+        for (length in 1..4) {
+            sequences = sequences.flatMap { sequence -> events.map { sequence + it } }
+            for (sequence in sequences) {
+                checkSequence(sequence)
+            }
+        }
+    }
+
+    @Test
+    fun openThatNeverCompletesIsUndoneAndRetriedOnTheNextEvent() {
+        val camera = newCamera(stepTimeoutMillis = 50L)
+        camera.completeOpen = false
+
+        camera.lifecycle.start(CameraFacing.BACK)
+        awaitCondition("open undone") { camera.opens == 1 && camera.state == CameraState.CAMERA_CLOSED }
+        assertEquals(null, camera.openFacing)
+        assertEquals(1L, metrics.transitionFailures)
+
+        // the open that was given up on reports in late; it must not count as this start's open
+        camera.lifecycle.onCameraOpened()
+        camera.completeOpen = true
+        camera.lifecycle.resume()
+        awaitCondition("reopened") { camera.state == CameraState.CAMERA_OPENED }
+        assertEquals(2, camera.opens)
+        assertEquals(null, camera.violation)
+    }
+
+    @Test
+    fun previewStartIsAbandonedWhenNoLongerWanted() {
+        val camera = newCamera()
+        camera.completePreview = false
+
+        camera.lifecycle.start(CameraFacing.BACK)
+        camera.lifecycle.onSurfaceReady()
+        awaitCondition("preview starting") { camera.previewing }
+        camera.lifecycle.pause()
+
+        awaitCondition("preview abandoned") { !camera.previewing && camera.state == CameraState.PREVIEW_STOPPED }
+        assertEquals(CameraFacing.BACK, camera.openFacing)
+        assertEquals(0L, metrics.transitionFailures)
+        assertEquals(null, camera.violation)
+    }
+
+    @Test
+    fun unexpectedCloseWaitsForTheNextHostEvent() {
+        val camera = newCamera()
+        camera.lifecycle.start(CameraFacing.FRONT)
+        camera.lifecycle.onSurfaceReady()
+        awaitCondition("previewing") { camera.state == CameraState.PREVIEW_STARTED }
+
+        // the device goes away underneath the lifecycle
+        camera.close()
+        camera.lifecycle.onCameraClosed()
+        awaitCondition("closed") { camera.state == CameraState.CAMERA_CLOSED }
+        Thread.sleep(QUIET_MILLIS)
+        assertEquals(1, camera.opens)
+
+        camera.lifecycle.resume()
+        awaitCondition("recovered") { camera.state == CameraState.PREVIEW_STARTED }
+        assertEquals(2, camera.opens)
+        assertEquals(null, camera.violation)
+    }
+
+    @Test
+    fun surfaceCreationOverlapsTheOpen() {
+        val camera = newCamera()
+        camera.completeOpen = false
+        camera.completePreview = false
+
+        camera.lifecycle.start(CameraFacing.BACK)
+        camera.lifecycle.resume()
+        backend.schedule({ camera.lifecycle.onSurfaceReady() }, SURFACE_MILLIS, TimeUnit.MILLISECONDS)
+        awaitCondition("opening") { camera.opens == 1 }
+        backend.schedule({ camera.lifecycle.onCameraOpened() }, OPEN_MILLIS, TimeUnit.MILLISECONDS)
+        awaitCondition("preview starting") { camera.previewing }
+        backend.schedule({ camera.lifecycle.onPreviewStarted() }, FIRST_FRAME_MILLIS, TimeUnit.MILLISECONDS)
+        awaitCondition("first frame") { metrics.timeToFirstFrame.count == 1L }
+
+        val timeToFirstFrame = metrics.timeToFirstFrame.lastNanos / 1_000_000L
+        println("time to first frame ${timeToFirstFrame}ms, open ${metrics.startToOpen.lastNanos / 1_000_000L}ms, " +
+                "surface ${metrics.startToSurface.lastNanos / 1_000_000L}ms")
+        assertEquals(1L, metrics.startToOpen.count)
+        assertEquals(1L, metrics.startToSurface.count)
+        assertTrue(metrics.startToSurface.lastNanos >= SURFACE_MILLIS * 1_000_000L)
+        assertTrue("$timeToFirstFrame ms", timeToFirstFrame >= OPEN_MILLIS + FIRST_FRAME_MILLIS)
+        // one step after another would take the surface time on top
+        assertTrue("$timeToFirstFrame ms", timeToFirstFrame < SURFACE_MILLIS + OPEN_MILLIS + FIRST_FRAME_MILLIS)
+        assertEquals(null, camera.violation)
+    }
+
+    @Test
+    fun surfaceThatOutlivedTheLastStopCostsNothing() {
+        val camera = newCamera()
+        camera.lifecycle.onSurfaceReady()
+        camera.lifecycle.start(CameraFacing.BACK)
+        awaitCondition("first frame") { metrics.timeToFirstFrame.count == 1L }
+        camera.lifecycle.stop()
+        awaitCondition("closed") { camera.state == CameraState.CAMERA_CLOSED }
+
+        camera.lifecycle.start(CameraFacing.BACK)
+        awaitCondition("first frame again") { metrics.timeToFirstFrame.count == 2L }
+
+        assertEquals(2L, metrics.startToSurface.count)
+        assertEquals(0L, metrics.startToSurface.maxNanos)
+        assertEquals(2L, metrics.startToOpen.count)
+    }
+
+    private fun checkSequence(sequence: List<HostEvent>) {
+        val camera = newCamera()
+        var facing: CameraFacing? = null
+        var stopped = true
+        var surfaceReady = false
+        var paused = false
+        for (event in sequence) {
+            when (event) {
+                HostEvent.START_BACK, HostEvent.START_FRONT -> {
+                    facing = if (event == HostEvent.START_BACK) CameraFacing.BACK else CameraFacing.FRONT
+                    stopped = false
+                    paused = false
+                    camera.lifecycle.start(facing)
+                }
+                HostEvent.RESUME -> {
+                    stopped = false
+                    paused = false
+                    camera.lifecycle.resume()
+                }
+                HostEvent.PAUSE -> {
+                    stopped = false
+                    paused = true
+                    camera.lifecycle.pause()
+                }
+                HostEvent.STOP -> {
+                    stopped = true
+                    camera.lifecycle.stop()
+                }
+                HostEvent.SURFACE_READY -> {
+                    surfaceReady = true
+                    camera.lifecycle.onSurfaceReady()
+                }
+            }
+        }
+
+        val expectedFacing = if (stopped) null else facing ?: CameraFacing.BACK
+        val expectPreview = expectedFacing != null && !paused && surfaceReady
+        awaitCondition("$sequence") {
+            camera.openFacing == expectedFacing && camera.previewing == expectPreview
+        }
+        // settled, not just passing through
+        Thread.sleep(QUIET_MILLIS)
+        if (camera.openFacing != expectedFacing || camera.previewing != expectPreview) {
+            fail("$sequence left facing=${camera.openFacing} previewing=${camera.previewing}")
+        }
+        val violation = camera.violation
+        if (violation != null) {
+            fail("$sequence: $violation")
+        }
+        if (expectPreview) {
+            assertEquals("$sequence", CameraState.PREVIEW_STARTED, camera.state)
+        }
+    }
+
+    private fun newCamera(stepTimeoutMillis: Long = CameraLifecycle.DEFAULT_STEP_TIMEOUT_MILLIS): FakeCamera {
+        val camera = FakeCamera()
+        camera.lifecycle = CameraLifecycle(scope, camera, metrics, stepTimeoutMillis)
+        return camera
+    }
+
+    private fun awaitCondition(what: String, condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TIMEOUT_MILLIS * 1_000_000L
+        while (!condition()) {
+            assertTrue("timed out waiting for $what", System.nanoTime() < deadline)
+            Thread.sleep(1)
+        }
+    }
+
+    companion object {
+        private const val TIMEOUT_MILLIS = 2000L
+        private const val QUIET_MILLIS = 5L
+        private const val SURFACE_MILLIS = 100L
+        private const val OPEN_MILLIS = 100L
+        private const val FIRST_FRAME_MILLIS = 50L
+    }
+
+}
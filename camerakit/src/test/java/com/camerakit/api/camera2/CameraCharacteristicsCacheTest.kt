@@ -0,0 +1,139 @@
+package com.camerakit.api.camera2
+
+import android.hardware.camera2.CameraCharacteristics
+import com.camerakit.api.CameraAttributes
+import com.camerakit.type.CameraFacing
+import com.camerakit.type.CameraSize
+import com.camerakit.util.CameraProfile
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.objenesis.ObjenesisStd
+import java.util.IdentityHashMap
+
+/**
+ * Drives the cache with a camera service that takes [SERVICE_CALL_MILLIS] per call, as a slow
+ * device does on a cold start, and measures the lookups `open()` makes before the device opens.
+ */
+class CameraCharacteristicsCacheTest {
+
+    private class FakeSource : CameraCharacteristicsCache.Source {
+
+        // CameraCharacteristics is final and has no public constructor
+        private val characteristics = mapOf(
+                "0" to ObjenesisStd().newInstance(CameraCharacteristics::class.java),
+                "1" to ObjenesisStd().newInstance(CameraCharacteristics::class.java))
+        private val facings = IdentityHashMap<CameraCharacteristics, Int>().apply {
+            put(characteristics.getValue("0"), CameraCharacteristics.LENS_FACING_BACK)
+            put(characteristics.getValue("1"), CameraCharacteristics.LENS_FACING_FRONT)
+        }
+
+        var calls = 0
+
+        override fun cameraIdList(): Array<String> {
+            serviceCall()
+            return arrayOf("0", "1")
+        }
+
+        override fun characteristics(cameraId: String): CameraCharacteristics {
+            serviceCall()
+            return characteristics.getValue(cameraId)
+        }
+
+        override fun lensFacing(characteristics: CameraCharacteristics): Int? = facings[characteristics]
+
+        private fun serviceCall() {
+            calls++
+            Thread.sleep(SERVICE_CALL_MILLIS)
+        }
+
+    }
+
+    private val source = FakeSource()
+    private val cache = CameraCharacteristicsCache(source)
+
+    @Test
+    fun coldOpenQueriesTheServiceOnce() {
+        val cold = measureOpen(CameraFacing.FRONT)
+        val callsAfterCold = source.calls
+        val warm = measureOpen(CameraFacing.FRONT)
+
+        // ID list, then the characteristics of both cameras until the front one is found
+        assertEquals(3, callsAfterCold)
+        assertEquals(callsAfterCold, source.calls)
+        assertTrue("cold=${cold}ns", cold >= 3 * SERVICE_CALL_MILLIS * 1_000_000L)
+        assertTrue("warm=${warm}ns cold=${cold}ns", warm < cold / 10)
+    }
+
+    @Test
+    fun prefetchTakesOpenOffTheServicePath() {
+        var created = 0
+        cache.prefetch { cameraId, _ ->
+            created++
+            attributes(cameraId, CameraFacing.BACK)
+        }
+        val callsAfterPrefetch = source.calls
+
+        val open = measureOpen(CameraFacing.BACK)
+
+        assertEquals(2, created)
+        assertEquals(callsAfterPrefetch, source.calls)
+        assertTrue("open=${open}ns", open < SERVICE_CALL_MILLIS * 1_000_000L)
+    }
+
+    @Test
+    fun unknownCameraDropsTheIdList() {
+        val ids = cache.cameraIdList()
+        cache.onCameraAvailable("0")
+        assertSame(ids, cache.cameraIdList())
+
+        cache.onCameraAvailable("2")
+        cache.cameraIdList()
+
+        assertEquals(2, source.calls)
+    }
+
+    @Test
+    fun unavailableCameraDropsItsEntryAndTheIdList() {
+        cache.characteristics("0")
+        cache.characteristics("1")
+        cache.cameraIdList()
+        val callsBefore = source.calls
+
+        cache.onCameraUnavailable("0")
+        cache.cameraIdList()
+        cache.characteristics("0")
+        cache.characteristics("1")
+
+        // the ID list and camera 0 are loaded again, camera 1 is still cached
+        assertEquals(callsBefore + 2, source.calls)
+    }
+
+    @Test
+    fun resolvesFacingOfKnownCameras() {
+        assertEquals("0", cache.cameraId(CameraFacing.BACK))
+        assertEquals("1", cache.cameraId(CameraFacing.FRONT))
+        assertEquals(CameraFacing.FRONT, cache.facing("1"))
+    }
+
+    // the lookups Camera2.open makes before calling openCamera
+    private fun measureOpen(facing: CameraFacing): Long {
+        val begin = System.nanoTime()
+        val cameraId = cache.cameraId(facing)!!
+        cache.characteristics(cameraId)
+        cache.attributes(cameraId) { attributes(cameraId, facing) }
+        return System.nanoTime() - begin
+    }
+
+    private fun attributes(cameraId: String, facing: CameraFacing): CameraAttributes {
+        val size = CameraSize(640, 480)
+        return CameraProfile(cameraId, facing, 90, arrayOf(size), arrayOf(size), LongArray(1),
+                emptyArray(), "", size, size, size)
+    }
+
+    companion object {
+        private const val SERVICE_CALL_MILLIS = 20L
+    }
+
+}
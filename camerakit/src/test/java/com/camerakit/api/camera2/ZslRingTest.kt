@@ -0,0 +1,95 @@
+package com.camerakit.api.camera2
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class ZslRingTest {
+
+    private val evicted = ArrayList<String>()
+    private lateinit var ring: ZslRing<String, String>
+
+    @Before
+    fun setUp() {
+        evicted.clear()
+        ring = ZslRing(3) { evicted.add(it) }
+    }
+
+    @Test
+    fun evictsOldestBeyondCapacity() {
+        for (i in 1..5) {
+            ring.put(i * FRAME, "image$i")
+        }
+
+        assertEquals(3, ring.size)
+        assertEquals(listOf("image1", "image2"), evicted)
+    }
+
+    @Test
+    fun takesClosestFrameWithResult() {
+        for (i in 1..3) {
+            ring.put(i * FRAME, "image$i")
+        }
+        ring.putResult(1 * FRAME, "result1")
+        ring.putResult(2 * FRAME, "result2")
+
+        // image3 is closest but has no result yet
+        val entry = ring.take(3 * FRAME)!!
+
+        assertEquals("image2", entry.image)
+        assertEquals("result2", entry.result)
+        assertEquals(2, ring.size)
+    }
+
+    @Test
+    fun tiesGoToEarlierFrame() {
+        ring.put(100L, "image1")
+        ring.put(200L, "image2")
+
+        assertEquals("image1", ring.take(150L)!!.image)
+    }
+
+    @Test
+    fun pairsResultsThatArriveFirst() {
+        ring.putResult(1 * FRAME, "result1")
+        ring.put(1 * FRAME, "image1")
+
+        assertEquals("result1", ring.take(1 * FRAME)!!.result)
+    }
+
+    @Test
+    fun refusesFramesTooFarFromPress() {
+        ring.put(1 * FRAME, "image1")
+
+        assertNull(ring.take(1 * FRAME + ZslRing.DEFAULT_MAX_DISTANCE + 1))
+        assertEquals(1, ring.size)
+        assertNull(ZslRing<String, String>(2) {}.take(0L))
+    }
+
+    @Test
+    fun takenImagesAreNotEvicted() {
+        for (i in 1..3) {
+            ring.put(i * FRAME, "image$i")
+        }
+        val taken = ring.take(1 * FRAME)!!
+
+        // the ring keeps filling while the press is encoded
+        for (i in 4..6) {
+            ring.put(i * FRAME, "image$i")
+        }
+        ring.clear()
+
+        assertEquals("image1", taken.image)
+        assertTrue(taken.image !in evicted)
+        assertEquals(5, evicted.size)
+        assertEquals(0, ring.size)
+    }
+
+    companion object {
+        // 30 fps in sensor nanoseconds
+        private const val FRAME = 33_333_333L
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.camerakit.frame
+
+import java.nio.ByteBuffer
+
+/**
+ * Synthetic YUV_420_888 image standing in for the camera's ImageReader output: a luma plane
+ * and interleaved chroma planes with padded rows, like most HALs deliver. The planes are
+ * allocated once, so offering the same image repeatedly allocates nothing on the source side.
+ */
+internal class FakeFrameImage(override val width: Int,
+                              override val height: Int,
+                              direct: Boolean = false,
+                              private val rowPadding: Int = 16) : FrameImage {
+
+    override val planeCount: Int = 3
+
+    override var timestamp: Long = 0L
+
+    private val yRowStride = width + rowPadding
+    private val uvRowStride = width + rowPadding
+
+    private val planes: Array<ByteBuffer>
+
+    init {
+        val ySize = yRowStride * (height - 1) + width
+        val uvSize = uvRowStride * ((height + 1) / 2 - 1) + width - 1
+        val chroma = allocate(uvSize + 1, direct)
+        for (i in 0 until chroma.capacity()) {
+            chroma.put(i, (i % 251).toByte())
+        }
+        val luma = allocate(ySize, direct)
+        for (i in 0 until ySize) {
+            luma.put(i, (i % 253).toByte())
+        }
+        // u and v share the interleaved buffer, one byte apart, as in NV12/NV21 camera output
+        chroma.limit(uvSize)
+        val u = chroma.slice()
+        chroma.position(1).limit(uvSize + 1)
+        val v = chroma.slice()
+        planes = arrayOf(luma, u, v)
+    }
+
+    val size: Int
+        get() = planes[0].capacity() + planes[1].capacity() + planes[2].capacity()
+
+    override fun planeBuffer(plane: Int): ByteBuffer {
+        // the camera hands out buffers positioned at their start
+        planes[plane].rewind()
+        return planes[plane]
+    }
+
+    override fun rowStride(plane: Int): Int = if (plane == 0) yRowStride else uvRowStride
+
+    override fun pixelStride(plane: Int): Int = if (plane == 0) 1 else 2
+
+    private fun allocate(size: Int, direct: Boolean): ByteBuffer {
+        return if (direct) ByteBuffer.allocateDirect(size) else ByteBuffer.allocate(size)
+    }
+
+}
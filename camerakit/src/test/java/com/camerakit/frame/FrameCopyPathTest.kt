@@ -0,0 +1,155 @@
+package com.camerakit.frame
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.Executor
+
+/**
+ * Bytes copied per frame on the way to a native consumer, for the byte-array callback that
+ * predates [Frame], the pooled copy and the zero-copy path. Each run prints its copy cost and
+ * time, so the test doubles as a host benchmark.
+ */
+class FrameCopyPathTest {
+
+    private val stream = FrameStream()
+    private val image = FakeFrameImage(1280, 720, direct = true)
+    private val nativeBuffer = ByteBuffer.allocateDirect(image.size)
+    private var legacyBytesCopied = 0L
+
+    init {
+        stream.setCallbackExecutor(Executor { it.run() })
+    }
+
+    @After
+    fun tearDown() {
+        stream.release()
+    }
+
+    @Test
+    fun byteArrayCallbackCopiesTwice() {
+        val nanos = time {
+            // Image to heap array for FrameCallBack, then heap array to the consumer's native memory
+            val bytes = ByteArray(image.size)
+            var offset = 0
+            for (plane in 0 until image.planeCount) {
+                val buffer = image.planeBuffer(plane)
+                val length = buffer.remaining()
+                buffer.get(bytes, offset, length)
+                offset += length
+            }
+            nativeBuffer.clear()
+            nativeBuffer.put(bytes)
+            legacyBytesCopied += 2L * image.size
+        }
+
+        report("byte[] callback", legacyBytesCopied, nanos)
+        assertEquals(2L * image.size * FRAMES, legacyBytesCopied)
+    }
+
+    @Test
+    fun pooledCopyCopiesOnce() {
+        stream.copyMode = FrameCopyMode.COPY
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                // the consumer reads the pooled frame in place
+                frame.release()
+            }
+        }
+
+        val nanos = time { stream.offer(image) }
+
+        report("pooled copy", stream.stats.bytesCopied, nanos)
+        assertEquals(image.size.toLong() * FRAMES, stream.stats.bytesCopied)
+    }
+
+    @Test
+    fun zeroCopyHandsOverTheCameraBuffers() {
+        stream.copyMode = FrameCopyMode.ZERO_COPY
+        var closed = 0
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                assertTrue(frame.isZeroCopy)
+                assertSame(image.planeBuffer(0), frame.planeBuffer(0))
+                assertTrue(frame.planeBuffer(0).isDirect)
+                frame.release()
+            }
+        }
+
+        val nanos = time {
+            assertTrue(stream.offerZeroCopy(image, AutoCloseable { closed++ }))
+        }
+
+        report("zero copy", stream.stats.bytesCopied, nanos)
+        assertEquals(0L, stream.stats.bytesCopied)
+        assertEquals(WARMUP + FRAMES, closed)
+    }
+
+    @Test
+    fun zeroCopyImageStaysOpenUntilLastRelease() {
+        stream.copyMode = FrameCopyMode.ZERO_COPY
+        stream.zeroCopyLimit = 2
+        val held = ArrayList<Frame>()
+        var closed = 0
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                held.add(frame.retain())
+                frame.release()
+            }
+        }
+
+        assertTrue(stream.offerZeroCopy(image, AutoCloseable { closed++ }))
+        assertTrue(stream.offerZeroCopy(image, AutoCloseable { closed++ }))
+        // over the limit: the caller keeps the image and must close it itself
+        assertFalse(stream.offerZeroCopy(image, AutoCloseable { closed++ }))
+        assertEquals(0, closed)
+
+        held[0].release()
+        assertEquals(1, closed)
+        assertTrue(stream.offerZeroCopy(image, AutoCloseable { closed++ }))
+
+        held.drop(1).forEach { it.release() }
+        assertEquals(3, closed)
+        assertEquals(1L, stream.stats.droppedCount)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun zeroCopyBuffersAreInvalidAfterRelease() {
+        stream.copyMode = FrameCopyMode.ZERO_COPY
+        var released: Frame? = null
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                frame.release()
+                released = frame
+            }
+        }
+
+        stream.offerZeroCopy(image, AutoCloseable { })
+
+        released!!.planeBuffer(0)
+    }
+
+    private fun time(frame: () -> Unit): Long {
+        repeat(WARMUP) { frame() }
+        stream.stats.reset()
+        legacyBytesCopied = 0L
+        val begin = System.nanoTime()
+        repeat(FRAMES) { frame() }
+        return System.nanoTime() - begin
+    }
+
+    private fun report(path: String, bytesCopied: Long, nanos: Long) {
+        println(String.format("%-16s %8d bytes copied/frame %8.1f us/frame",
+                path, bytesCopied / FRAMES, nanos / 1000.0 / FRAMES))
+    }
+
+    companion object {
+        private const val WARMUP = 50
+        private const val FRAMES = 200
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.camerakit.frame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.ArrayDeque
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class FrameDispatcherTest {
+
+    /** Runs delivery only when the test says so, standing in for a busy consumer thread. */
+    private class ManualExecutor : Executor {
+        private val tasks = ArrayDeque<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.addLast(command)
+        }
+
+        fun runAll() {
+            while (tasks.isNotEmpty()) {
+                tasks.pollFirst().run()
+            }
+        }
+    }
+
+    private val pool = FramePool(8)
+    private val executor = ManualExecutor()
+    private val delivered = ArrayList<Long>()
+    private val listener = object : FrameListener {
+        override fun onFrame(frame: Frame) {
+            delivered.add(frame.sequence)
+            frame.release()
+        }
+    }
+
+    @Test
+    fun keepLatestDeliversOnlyTheNewestPendingFrame() {
+        val dispatcher = newDispatcher(FrameBackpressure.KEEP_LATEST, 4)
+
+        for (sequence in 0L until 5L) {
+            dispatcher.dispatch(frame(sequence))
+        }
+        executor.runAll()
+
+        assertEquals(1, dispatcher.capacity)
+        assertEquals(listOf(4L), delivered)
+        assertEquals(4L, dispatcher.stats.droppedCount)
+        assertEquals(1L, dispatcher.stats.deliveredCount)
+        assertEquals(1, dispatcher.stats.peakQueueDepth)
+        assertAllReturnedToPool()
+    }
+
+    @Test
+    fun dropOldestKeepsTheNewestCapacityFrames() {
+        val dispatcher = newDispatcher(FrameBackpressure.DROP_OLDEST, 3)
+
+        for (sequence in 0L until 7L) {
+            dispatcher.dispatch(frame(sequence))
+        }
+        executor.runAll()
+
+        assertEquals(listOf(4L, 5L, 6L), delivered)
+        assertEquals(4L, dispatcher.stats.droppedCount)
+        assertEquals(3, dispatcher.stats.peakQueueDepth)
+        assertEquals(0, dispatcher.stats.currentQueueDepth)
+        assertAllReturnedToPool()
+    }
+
+    @Test
+    fun blockProducerLosesNothing() {
+        val consumer = Executors.newSingleThreadExecutor()
+        val dispatcher = FrameDispatcher(FrameBackpressure.BLOCK_PRODUCER, 2, consumer)
+        val received = CountDownLatch(20)
+        val gate = CountDownLatch(1)
+        dispatcher.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                gate.await()
+                synchronized(delivered) {
+                    delivered.add(frame.sequence)
+                }
+                frame.release()
+                received.countDown()
+            }
+        }
+
+        val producer = Thread {
+            for (sequence in 0L until 20L) {
+                var frame = pool.acquire(16)
+                while (frame == null) {
+                    Thread.sleep(1)
+                    frame = pool.acquire(16)
+                }
+                frame.sequence = sequence
+                dispatcher.dispatch(frame)
+            }
+        }
+        producer.start()
+
+        // one frame in the consumer and two queued, then the producer has to wait
+        producer.join(200)
+        assertTrue(producer.isAlive)
+        assertEquals(2, dispatcher.stats.currentQueueDepth)
+
+        gate.countDown()
+        assertTrue(received.await(5, TimeUnit.SECONDS))
+        producer.join(1000)
+        consumer.shutdown()
+
+        assertEquals((0L until 20L).toList(), delivered)
+        assertEquals(0L, dispatcher.stats.droppedCount)
+        assertEquals(2, dispatcher.stats.peakQueueDepth)
+    }
+
+    @Test
+    fun closeReleasesQueuedFramesAndWakesBlockedProducer() {
+        val dispatcher = newDispatcher(FrameBackpressure.BLOCK_PRODUCER, 1)
+        dispatcher.dispatch(frame(0))
+
+        val producer = Thread { dispatcher.dispatch(frame(1)) }
+        producer.start()
+        producer.join(100)
+        assertTrue(producer.isAlive)
+
+        dispatcher.close()
+        producer.join(1000)
+
+        assertFalse(producer.isAlive)
+        executor.runAll()
+        assertTrue(delivered.isEmpty())
+        assertEquals(2L, dispatcher.stats.droppedCount)
+        assertAllReturnedToPool()
+    }
+
+    @Test
+    fun idleOnlyWhenNothingIsQueuedOrDelivering() {
+        val dispatcher = newDispatcher(FrameBackpressure.DROP_OLDEST, 2)
+        assertTrue(dispatcher.isIdle)
+
+        dispatcher.dispatch(frame(0))
+        assertFalse(dispatcher.isIdle)
+
+        executor.runAll()
+        assertTrue(dispatcher.isIdle)
+    }
+
+    @Test
+    fun framesWithoutListenerAreDropped() {
+        val dispatcher = FrameDispatcher(FrameBackpressure.DROP_OLDEST, 2, executor)
+
+        dispatcher.dispatch(frame(0))
+        executor.runAll()
+
+        assertEquals(1L, dispatcher.stats.droppedCount)
+        assertEquals(0L, dispatcher.stats.deliveredCount)
+        assertAllReturnedToPool()
+    }
+
+    private fun newDispatcher(policy: FrameBackpressure, capacity: Int): FrameDispatcher {
+        return FrameDispatcher(policy, capacity, executor).also { it.listener = listener }
+    }
+
+    private fun frame(sequence: Long): Frame {
+        val frame = pool.acquire(16)!!
+        frame.sequence = sequence
+        return frame
+    }
+
+    // every frame ever handed out is free again, so the whole pool can be acquired at once
+    private fun assertAllReturnedToPool() {
+        val frames = (0 until pool.maxFrames).map { pool.acquire(16) }
+        assertTrue(frames.all { it != null })
+        frames.forEach { it!!.release() }
+    }
+
+}
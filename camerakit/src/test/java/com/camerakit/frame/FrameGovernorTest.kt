@@ -0,0 +1,153 @@
+package com.camerakit.frame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameGovernorTest {
+
+    private class VirtualClock : FrameClock {
+        var now = 1_000_000_000L
+
+        override fun nanoTime(): Long = now
+    }
+
+    private val clock = VirtualClock()
+    private val governor = FrameGovernor(clock)
+
+    @Test
+    fun unlimitedAcceptsEveryFrame() {
+        val accepted = run(frames = 60, frameNanos = FRAME_30FPS)
+
+        assertEquals(60, accepted)
+        assertEquals(0L, governor.skippedCount)
+    }
+
+    @Test
+    fun maxRateHalvesA30FpsSource() {
+        governor.configure(FrameGovernor.Mode.MAX_RATE, maxFps = 15f)
+
+        val accepted = run(frames = 60, frameNanos = FRAME_30FPS)
+
+        assertEquals(30, accepted)
+        assertEquals(30L, governor.skippedCount)
+        // maxFps is a Float, so the interval is only close to 1/15 s
+        assertEquals(66_666_666.0, governor.intervalNanos.toDouble(), 10.0)
+    }
+
+    @Test
+    fun maxRateToleratesJitter() {
+        governor.configure(FrameGovernor.Mode.MAX_RATE, maxFps = 15f)
+        var accepted = 0
+        for (i in 0 until 60) {
+            // every other frame arrives 4 ms early or late
+            clock.now += FRAME_30FPS + if (i % 2 == 0) 4_000_000L else -4_000_000L
+            if (governor.shouldAccept(true)) {
+                accepted++
+            }
+        }
+
+        assertEquals(30, accepted)
+    }
+
+    @Test
+    fun maxRateDoesNotBurstAfterAStall() {
+        governor.configure(FrameGovernor.Mode.MAX_RATE, maxFps = 10f)
+        run(frames = 30, frameNanos = FRAME_30FPS)
+
+        // the source stalls for a second; afterwards the rate picks up where it was, not faster
+        clock.now += 1_000_000_000L
+        val accepted = run(frames = 30, frameNanos = FRAME_30FPS)
+
+        assertEquals(10, accepted)
+    }
+
+    @Test
+    fun cpuBudgetFollowsConsumerCost() {
+        governor.configure(FrameGovernor.Mode.CPU_BUDGET, cpuBudget = 0.5f)
+
+        // a consumer taking 40 ms per frame may run at most every 80 ms with half the CPU
+        val accepted = run(frames = 300, frameNanos = FRAME_30FPS, costNanos = 40_000_000L)
+
+        assertEquals(40_000_000L, governor.averageCostNanos)
+        assertEquals(80_000_000L, governor.intervalNanos)
+        // 10 s at one frame per 80 ms, within the quarter-interval slack
+        assertTrue("accepted $accepted", accepted in 120..140)
+    }
+
+    @Test
+    fun cpuBudgetAdaptsWhenTheConsumerSpeedsUp() {
+        governor.configure(FrameGovernor.Mode.CPU_BUDGET, cpuBudget = 1f)
+        run(frames = 100, frameNanos = FRAME_30FPS, costNanos = 100_000_000L)
+        assertEquals(100_000_000L, governor.intervalNanos)
+
+        run(frames = 100, frameNanos = FRAME_30FPS, costNanos = 5_000_000L)
+
+        // the smoothed cost converges on the new cost and the interval drops below a frame
+        assertTrue("interval ${governor.intervalNanos}", governor.intervalNanos < FRAME_30FPS)
+        assertEquals(30, run(frames = 30, frameNanos = FRAME_30FPS, costNanos = 5_000_000L))
+    }
+
+    @Test
+    fun maxFpsCapsCpuBudget() {
+        governor.configure(FrameGovernor.Mode.CPU_BUDGET, maxFps = 5f, cpuBudget = 1f)
+
+        val accepted = run(frames = 90, frameNanos = FRAME_30FPS, costNanos = 1_000_000L)
+
+        assertEquals(200_000_000L, governor.intervalNanos)
+        // 3 s at 5 fps, plus the frame that starts the schedule
+        assertEquals(16, accepted)
+    }
+
+    @Test
+    fun whenIdleSkipsWhileBusy() {
+        governor.configure(FrameGovernor.Mode.WHEN_IDLE)
+
+        assertTrue(governor.shouldAccept(true))
+        assertFalse(governor.shouldAccept(false))
+        assertFalse(governor.shouldAccept(false))
+        assertTrue(governor.shouldAccept(true))
+
+        assertEquals(2L, governor.acceptedCount)
+        assertEquals(2L, governor.skippedCount)
+    }
+
+    @Test
+    fun resetClearsDecisionsAndCost() {
+        governor.configure(FrameGovernor.Mode.CPU_BUDGET, cpuBudget = 0.5f)
+        run(frames = 10, frameNanos = FRAME_30FPS, costNanos = 40_000_000L)
+
+        governor.reset()
+
+        assertEquals(0L, governor.acceptedCount)
+        assertEquals(0L, governor.skippedCount)
+        assertEquals(0L, governor.averageCostNanos)
+        assertEquals(0L, governor.intervalNanos)
+        assertEquals(0L, governor.consumerCost.count)
+        assertTrue(governor.shouldAccept(true))
+    }
+
+    /**
+     * Feeds [frames] frames spaced [frameNanos] apart. An accepted frame reports [costNanos] of
+     * consumer time; the virtual clock does not advance for it, as delivery is on another thread.
+     */
+    private fun run(frames: Int, frameNanos: Long, costNanos: Long = 0L): Int {
+        var accepted = 0
+        for (i in 0 until frames) {
+            clock.now += frameNanos
+            if (governor.shouldAccept(true)) {
+                accepted++
+                if (costNanos > 0L) {
+                    governor.onDelivered(costNanos)
+                }
+            }
+        }
+        return accepted
+    }
+
+    companion object {
+        private const val FRAME_30FPS = 33_333_333L
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.camerakit.frame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class FrameRingBufferTest {
+
+    // the stream's pool; every pushed frame is handed back to it by the ring buffer
+    private val source = FramePool(1)
+
+    @Test
+    fun slotCountIsTheSmallerOfBudgetAndMaxFrames() {
+        val byBudget = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE + FRAME_SIZE / 2)
+        byBudget.push(index = 0)
+        assertEquals(4, byBudget.slotCount)
+
+        val byCount = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE, maxFrames = 3)
+        byCount.push(index = 0)
+        assertEquals(3, byCount.slotCount)
+
+        val tooSmall = FrameRingBuffer(byteBudget = FRAME_SIZE - 1L)
+        tooSmall.push(index = 0)
+        assertEquals(0, tooSmall.slotCount)
+        assertEquals(0, tooSmall.size)
+    }
+
+    @Test
+    fun wraparoundKeepsTheNewestFramesInOrder() {
+        val ring = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE)
+
+        for (i in 0 until 10) {
+            ring.push(i)
+        }
+
+        assertEquals(4, ring.size)
+        assertEquals(4L * FRAME_SIZE, ring.bufferedBytes)
+        assertEquals(6L, ring.evictedCount)
+        assertEquals(0L, ring.droppedCount)
+        val frames = ring.snapshot()
+        assertEquals(listOf(6, 7, 8, 9), frames.map { indexOf(it) })
+        frames.forEach { it.release() }
+    }
+
+    @Test
+    fun snapshotStopsAtTheTrigger() {
+        val ring = FrameRingBuffer(byteBudget = 8L * FRAME_SIZE)
+        for (i in 0 until 6) {
+            ring.push(i)
+        }
+
+        val frames = ring.snapshot(timestamp = 3 * FRAME_NANOS + 1)
+
+        assertEquals(listOf(0, 1, 2, 3), frames.map { indexOf(it) })
+        frames.forEach { it.release() }
+        assertEquals(6, ring.size)
+    }
+
+    @Test
+    fun maxAgeEvictsFramesOlderThanTheNewest() {
+        val ring = FrameRingBuffer(byteBudget = 16L * FRAME_SIZE, maxAgeNanos = 2 * FRAME_NANOS)
+
+        for (i in 0 until 10) {
+            ring.push(i)
+        }
+
+        val frames = ring.snapshot()
+        assertEquals(listOf(7, 8, 9), frames.map { indexOf(it) })
+        assertEquals(7L, ring.evictedCount)
+        frames.forEach { it.release() }
+    }
+
+    @Test
+    fun snapshotIsUnchangedByLaterFrames() {
+        val ring = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE)
+        for (i in 0 until 4) {
+            ring.push(i)
+        }
+        val frames = ring.snapshot(timestamp = 1 * FRAME_NANOS)
+
+        for (i in 4 until 20) {
+            ring.push(i)
+        }
+
+        // the two pinned slots are never handed out again, so the buffer runs on the other two
+        assertEquals(listOf(0, 1), frames.map { indexOf(it) })
+        frames.forEach { assertPixels(it, indexOf(it)) }
+        assertEquals(2, ring.size)
+        val latest = ring.snapshot()
+        assertEquals(listOf(18, 19), latest.map { indexOf(it) })
+        latest.forEach { it.release() }
+
+        frames.forEach { it.release() }
+        ring.push(20)
+        ring.push(21)
+        assertEquals(4, ring.size)
+    }
+
+    @Test
+    fun framesAreDroppedWhileSnapshotsPinEverySlot() {
+        val ring = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE)
+        for (i in 0 until 4) {
+            ring.push(i)
+        }
+        val frames = ring.snapshot()
+
+        for (i in 4 until 7) {
+            ring.push(i)
+        }
+
+        assertEquals(0, ring.size)
+        assertEquals(3L, ring.droppedCount)
+        assertEquals(4L, ring.evictedCount)
+        frames.forEach { assertPixels(it, indexOf(it)) }
+
+        frames.forEach { it.release() }
+        ring.push(7)
+        assertEquals(1, ring.size)
+        assertEquals(3L, ring.droppedCount)
+    }
+
+    @Test
+    fun clearReleasesEverySlotForReuse() {
+        val ring = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE)
+        for (i in 0 until 4) {
+            ring.push(i)
+        }
+
+        ring.clear()
+        assertEquals(0, ring.size)
+
+        for (i in 4 until 8) {
+            ring.push(i)
+        }
+        assertEquals(4, ring.size)
+        assertEquals(0L, ring.droppedCount)
+    }
+
+    @Test
+    fun steadyStateBufferingDoesNotAllocate() {
+        val ring = FrameRingBuffer(byteBudget = 4L * FRAME_SIZE)
+        // fills every slot, after which they are only reused
+        for (i in 0 until 8) {
+            ring.push(i)
+        }
+
+        val allocated = allocatedBytes {
+            for (i in 8 until 8 + FRAMES) {
+                ring.push(i)
+            }
+        }
+
+        assertTrue("allocated $allocated bytes", allocated < FRAMES * 64L)
+        assertEquals(FRAMES + 4L, ring.evictedCount)
+    }
+
+    /** Pushes frame [index], whose timestamp and pixels are derived from it, as a stream would. */
+    private fun FrameRingBuffer.push(index: Int) {
+        val frame = source.acquire(FRAME_SIZE)!!
+        val buffer = frame.buffer
+        for (i in 0 until FRAME_SIZE) {
+            buffer.put(i, (index + i).toByte())
+        }
+        frame.setPlane(0, 0, FRAME_SIZE, 1)
+        frame.timestamp = index * FRAME_NANOS
+        onFrame(frame)
+    }
+
+    private fun indexOf(frame: Frame): Int = (frame.timestamp / FRAME_NANOS).toInt()
+
+    private fun assertPixels(frame: Frame, index: Int) {
+        val plane = frame.planeBuffer(0)
+        assertEquals(FRAME_SIZE, plane.remaining())
+        for (i in 0 until FRAME_SIZE) {
+            assertEquals((index + i).toByte(), plane.get(plane.position() + i))
+        }
+    }
+
+    private fun allocatedBytes(block: () -> Unit): Long {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val thread = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(thread)
+        block()
+        return threads.getThreadAllocatedBytes(thread) - before
+    }
+
+    companion object {
+        private const val FRAME_SIZE = 64
+        private const val FRAME_NANOS = 33_333_333L
+        private const val FRAMES = 300
+    }
+
+}
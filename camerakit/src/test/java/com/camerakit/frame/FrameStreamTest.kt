@@ -0,0 +1,124 @@
+package com.camerakit.frame
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.concurrent.Executor
+
+class FrameStreamTest {
+
+    private val stream = FrameStream()
+    private val image = FakeFrameImage(640, 480)
+
+    init {
+        // deliver on the offering thread so allocations are measured in one place
+        stream.setCallbackExecutor(Executor { it.run() })
+    }
+
+    @After
+    fun tearDown() {
+        stream.release()
+    }
+
+    @Test
+    fun steadyStateDeliveryReusesPooledFrames() {
+        var delivered = 0
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                delivered++
+                frame.release()
+            }
+        }
+
+        repeat(FRAMES) { offer(it) }
+
+        assertEquals(FRAMES, delivered)
+        assertEquals(1L, stream.pool.missCount)
+        assertEquals(FRAMES - 1L, stream.pool.hitCount)
+        assertEquals(0L, stream.pool.exhaustedCount)
+        assertEquals(FRAMES.toLong() * image.size, stream.stats.bytesCopied)
+    }
+
+    @Test
+    fun steadyStateDeliveryDoesNotAllocate() {
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                frame.release()
+            }
+        }
+        // warm up the pool, the dispatcher and the JIT
+        repeat(FRAMES) { offer(it) }
+
+        val allocated = allocatedBytes { repeat(FRAMES) { offer(it) } }
+
+        // a single 640x480 copy on the heap would be ~460 KB per frame
+        assertTrue("allocated $allocated bytes over $FRAMES frames", allocated < FRAMES * 64L)
+    }
+
+    @Test
+    fun heldFramesExhaustThePoolInsteadOfAllocating() {
+        val held = ArrayList<Frame>()
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                held.add(frame)
+            }
+        }
+
+        repeat(10) { offer(it) }
+
+        val poolSize = stream.pool.maxFrames
+        assertEquals(poolSize, held.size)
+        assertEquals(poolSize.toLong(), stream.pool.missCount)
+        assertEquals(10L - poolSize, stream.pool.exhaustedCount)
+        assertEquals(10L - poolSize, stream.stats.droppedCount)
+
+        held.forEach { it.release() }
+        offer(10)
+        assertEquals(1L, stream.pool.hitCount)
+    }
+
+    @Test
+    fun frameCarriesPlaneLayoutAndPixels() {
+        var checked = false
+        stream.listener = object : FrameListener {
+            override fun onFrame(frame: Frame) {
+                assertEquals(640, frame.width)
+                assertEquals(480, frame.height)
+                assertEquals(42L, frame.timestamp)
+                assertEquals(3, frame.planeCount)
+                for (plane in 0 until 3) {
+                    assertEquals(image.rowStride(plane), frame.rowStride(plane))
+                    assertEquals(image.pixelStride(plane), frame.pixelStride(plane))
+                    assertEquals(image.planeBuffer(plane), frame.planeBuffer(plane))
+                }
+                frame.release()
+                checked = true
+            }
+        }
+
+        image.timestamp = 42L
+        stream.offer(image)
+
+        assertTrue(checked)
+    }
+
+    private fun offer(index: Int) {
+        image.timestamp = index * 33_333_333L
+        stream.offer(image)
+    }
+
+    private fun allocatedBytes(block: () -> Unit): Long {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val thread = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(thread)
+        block()
+        return threads.getThreadAllocatedBytes(thread) - before
+    }
+
+    companion object {
+        private const val FRAMES = 300
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.camerakit.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class JpegOrientationTest {
+
+    private val jpeg = byteArrayOf(0xFF.toByte(), 0xD8.toByte(), 0xFF.toByte(), 0xE0.toByte(), 1, 2, 3,
+            0xFF.toByte(), 0xD9.toByte())
+
+    @Test
+    fun uprightJpegIsUntouched() {
+        assertSame(jpeg, JpegOrientation.withOrientation(jpeg, 0))
+        assertSame(jpeg, JpegOrientation.withOrientation(jpeg, 360))
+    }
+
+    @Test
+    fun insertsExifSegmentAfterStartOfImage() {
+        val tagged = JpegOrientation.withOrientation(jpeg, 90)
+
+        assertEquals(jpeg.size + 36, tagged.size)
+        assertEquals(0xFF.toByte(), tagged[2])
+        assertEquals(0xE1.toByte(), tagged[3])
+        // segment length excludes the marker
+        assertEquals(34, (tagged[4].toInt() shl 8) or tagged[5].toInt())
+        assertEquals("Exif", String(tagged, 6, 4, Charsets.US_ASCII))
+        assertArrayEquals(jpeg.copyOfRange(2, jpeg.size), tagged.copyOfRange(38, tagged.size))
+    }
+
+    @Test
+    fun mapsDegreesToOrientationTag() {
+        assertEquals(6, orientationOf(JpegOrientation.withOrientation(jpeg, 90)))
+        assertEquals(3, orientationOf(JpegOrientation.withOrientation(jpeg, 180)))
+        assertEquals(8, orientationOf(JpegOrientation.withOrientation(jpeg, 270)))
+        assertEquals(8, orientationOf(JpegOrientation.withOrientation(jpeg, -90)))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsUnalignedRotation() {
+        JpegOrientation.withOrientation(jpeg, 45)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsNonJpeg() {
+        JpegOrientation.withOrientation(byteArrayOf(1, 2, 3), 90)
+    }
+
+    // TIFF header at 12, IFD at 20: entry count, then tag 0x0112 with its SHORT value at +8
+    private fun orientationOf(tagged: ByteArray): Int {
+        assertEquals(0x01, tagged[22].toInt())
+        assertEquals(0x12, tagged[23].toInt())
+        return tagged[31].toInt()
+    }
+
+}